@@ -20,20 +20,51 @@ package JSBCommands;
 
 import Command.Command;
 import Command.IHandler;
+import JSBCommands.Util.ArtifactStore;
+import JSBCommands.Util.BuildCache;
+import JSBCommands.Util.BuildState;
+import JSBCommands.Util.ClassFile;
+import JSBCommands.Util.Compiler;
 import JSBCommands.Util.Config;
 import JSBCommands.Util.Dependency;
+import JSBCommands.Util.Downloader;
+import JSBCommands.Util.FileIndex;
+import JSBCommands.Util.Modules;
+import JSBCommands.Util.Processors;
+import JSBCommands.Util.ReleaseSets;
+import JSBCommands.Util.Timings;
+import JSBCommands.Util.Watcher;
 import JSBCommands.Util.Runner;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * BuildCommand handles the compilation of Java source files in the project.
@@ -45,6 +76,34 @@ public class BuildCommand implements IHandler {
     Config config;
     /** Dependency manager for handling project dependencies */
     Dependency dependency;
+    /** In-process Java compiler, used unless build.compiler is set to external */
+    Compiler compiler = new Compiler();
+
+    /** Module name when building one module of a multi-module project, empty otherwise */
+    String name = "";
+    /** Builds of the modules this module depends on, directly or indirectly */
+    List<BuildCommand> upstream = new ArrayList<>();
+    /** Builds of every module of a multi-module project, by module name */
+    private Map<String, BuildCommand> moduleBuilds = new HashMap<>();
+    /** Set while watching, where every save is a new state not worth caching */
+    private boolean watching = false;
+    /** Set once restoring from the build cache failed, so this run compiles instead of looking it up again */
+    private boolean cacheFailed = false;
+    /** Build cache counters of the current build, shared with the module builds */
+    private BuildCache.Stats cacheStats = new BuildCache.Stats();
+    /** Snapshot of code.path, kept between builds in watch mode and the daemon */
+    private FileIndex sources;
+    /** Snapshot of resource.path, used to tell if a rebuild is needed in watch mode */
+    private FileIndex resources;
+    /** In-process compiler for the release source sets, kept apart for its own classpath */
+    private Compiler releaseCompiler = new Compiler();
+    /** Annotation processors from build.processors, kept open between builds */
+    private Processors processors;
+    /** The processor path the processors were loaded from */
+    private List<File> processorPath = List.of();
+
+    /** The fewest sources worth a compilation of their own when compiling in parallel */
+    private static final int MIN_BATCH_SIZE = 25;
 
     /**
      * Constructs a new BuildCommand with the specified configuration and dependency manager.
@@ -65,7 +124,8 @@ public class BuildCommand implements IHandler {
      * 1. Initializes configuration if not ready
      * 2. Loads dependencies if specified
      * 3. Finds all Java source files in the code path
-     * 4. Constructs and executes the build command
+     * 4. Compiles them in-process, or forks build.cmd when build.compiler is external.
+     *    In-process builds are incremental unless build.incremental is false.
      *
      * @param command The command object containing build parameters
      * @throws Exception If there's an error during the build process
@@ -74,77 +134,1407 @@ public class BuildCommand implements IHandler {
     public void handleCommand(Command command) throws Exception {
         if (!this.config.ready()) this.config.initConfig();
 
-        if (config.get("deps") != null) {
-            String[] deps = config.get("deps").split(",");
-            dependency.loadDeps(deps, config.get("dep.path"));
+        if (command.get(0).equals("--watch")) {
+            this.watch(exitedGood -> {});
+            return;
         }
-        System.out.println("Building project ...");
-        
-        File buildDir = new File(config.get("build.builds"));
-        if (!buildDir.exists()) {
-            buildDir.mkdirs();
-        } else {
-            try {
-                Files.walk(Paths.get(config.get("build.builds")))
-                    .filter(p -> p.toString().endsWith(".class"))
-                    .forEach(p -> {
+
+        boolean exitedGood = this.buildAll();
+        if (exitedGood) System.out.println("Building exited successfully!");
+        else System.out.println("Building probably failed : (");
+    }
+
+    /**
+     * Builds the project, or every module of a multi-module project.
+     * Prints the build cache hit rate and remote transfers at the end, if the cache was used.
+     *
+     * @return true if the build succeeded
+     * @throws Exception If there's an error during the build process
+     */
+    public boolean buildAll() throws Exception {
+        this.cacheStats = new BuildCache.Stats();
+        boolean exitedGood = Modules.enabled(config) ? this.buildModules() : this.build();
+        if (!cacheStats.isEmpty()) System.out.println("Build cache: " + cacheStats.summary());
+        return exitedGood;
+    }
+
+    /**
+     * Compiles the whole project, or every module of a multi-module project at once,
+     * without writing class files or build state. Used to package straight into a jar.
+     * Dependencies are still downloaded to dep.path first. The release source sets are
+     * compiled against the base classes in memory, into META-INF/versions.
+     *
+     * @return The compiled classes by path (e.g. pkg/Main.class), or null if compilation failed
+     * @throws Exception If the sources or dependencies cannot be read
+     */
+    public Map<String, byte[]> buildInMemory() throws Exception {
+        List<Config> projects = Modules.enabled(config)
+            ? new ArrayList<>(Modules.load(config).values())
+            : List.of(config);
+
+        List<File> sources = new ArrayList<>();
+        LinkedHashSet<File> classpath = new LinkedHashSet<>();
+        for (Config project : projects) {
+            Dependency projectDeps = project == config ? dependency : new Dependency(project);
+            projectDeps.loadDeps();
+            classpath.addAll(projectDeps.list(Dependency.Classpath.COMPILE));
+
+            // Only read the snapshot, nothing is written besides the jar
+            FileIndex projectSources = FileIndex.of(project, "code.path", ".java");
+            projectSources.refresh();
+            for (Path source : baseSources(project, projectSources)) sources.add(source.toFile());
+        }
+        if (sources.isEmpty()) {
+            throw new FileNotFoundException("No Java files found in " + config.path("code.path"));
+        }
+
+        // Generated sources stay in memory as well
+        compiler.setProcessors(this.processors(), null);
+        long start = System.nanoTime();
+        this.log("Compiling " + sources.size() + " file(s) in memory ...");
+        Map<String, byte[]> classes = compiler.compileToMemory(
+            sources,
+            new ArrayList<>(classpath),
+            this.compilerOptions()
+        );
+        this.log("Compiled in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        if (classes == null) return null;
+
+        Map<String, byte[]> versioned = new TreeMap<>();
+        for (Config project : projects) {
+            // Classes of older sets replace the base ones for newer sets, as in the jar
+            Map<String, byte[]> visible = new HashMap<>(classes);
+            for (Map.Entry<Integer, Path> set : ReleaseSets.load(project).entrySet()) {
+                FileIndex setSources = this.releaseIndex(set.getKey(), set.getValue());
+                setSources.refresh();
+                List<File> files = setSources.files().stream().map(Path::toFile).collect(Collectors.toList());
+                if (files.isEmpty()) continue;
+
+                this.log("Compiling " + files.size() + " file(s) for release " + set.getKey() + " in memory ...");
+                List<String> options = this.compilerOptions(String.valueOf(set.getKey()));
+                Map<String, byte[]> setClasses = releaseCompiler.compileToMemory(
+                    files,
+                    new ArrayList<>(classpath),
+                    options,
+                    visible
+                );
+                if (setClasses == null) return null;
+                visible.putAll(setClasses);
+                for (Map.Entry<String, byte[]> setClass : setClasses.entrySet()) {
+                    versioned.put("META-INF/versions/" + set.getKey() + "/" + setClass.getKey(), setClass.getValue());
+                }
+            }
+        }
+        classes.putAll(versioned);
+        return classes;
+    }
+
+    /**
+     * Builds the project, then rebuilds it every time something changes in the
+     * code or resource directories, until JSB is stopped. The same JVM and compiler
+     * are used for every build, so later builds run warm, and only what changed is
+     * recompiled. Prints how long each rebuild took after the change was seen.
+     *
+     * @param afterBuild Called after every build with whether it succeeded
+     * @throws Exception If the directories cannot be watched
+     */
+    public void watch(Consumer<Boolean> afterBuild) throws Exception {
+        long debounce = Long.parseLong(config.get("build.watch.debounce"));
+        this.watching = true;
+        afterBuild.accept(this.buildWatched());
+
+        try (Watcher watcher = new Watcher(this.watchedPaths())) {
+            System.out.println("Watching for changes, press Ctrl+C to stop ...");
+            while (true) {
+                watcher.awaitChanges(debounce);
+                int changed = this.snapshotsChanged();
+                if (changed == 0) {
+                    // e.g. an editor's swap file that came and went
+                    System.out.println("No source or resource changed, not rebuilding.");
+                    continue;
+                }
+                System.out.println(
+                    (changed < 0 ? "Something" : changed + " file(s)") + " changed, rebuilding ..."
+                );
+                long start = System.nanoTime();
+                boolean exitedGood = this.buildWatched();
+                System.out.println(
+                    String.format(
+                        "Rebuilt in %d ms, %d ms after the first change was seen",
+                        (System.nanoTime() - start) / 1_000_000,
+                        watcher.sinceFirstEvent()
+                    )
+                );
+                afterBuild.accept(exitedGood);
+            }
+        }
+    }
+
+    /**
+     * Builds once in watch mode, where a failed build must not stop watching.
+     */
+    private boolean buildWatched() {
+        try {
+            boolean exitedGood = this.buildAll();
+            if (exitedGood) System.out.println("Building exited successfully!");
+            else System.out.println("Building probably failed : (");
+            return exitedGood;
+        } catch (Exception e) {
+            System.out.println("Building failed, " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Refreshes the snapshots of the code and resource directories of the project, or of
+     * every module, to check if a watch event actually added, changed or removed a file.
+     *
+     * @return The number of sources and resources added, changed or removed,
+     *         or -1 if that cannot be told
+     */
+    private int snapshotsChanged() {
+        try {
+            Collection<BuildCommand> builds = Modules.enabled(config) ? moduleBuilds.values() : List.of(this);
+            if (builds.isEmpty()) return -1;
+            int changed = 0;
+            for (BuildCommand build : builds) {
+                List<FileIndex> indexes = new ArrayList<>(List.of(build.sourceIndex(), build.resourceIndex()));
+                for (Map.Entry<Integer, Path> set : ReleaseSets.load(build.config).entrySet()) {
+                    indexes.add(build.releaseIndex(set.getKey(), set.getValue()));
+                }
+                for (FileIndex index : indexes) {
+                    FileIndex.Changes changes = index.refresh();
+                    index.save();
+                    changed += changes.added.size() + changes.changed.size() + changes.removed.size();
+                }
+            }
+            return changed;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The snapshot of code.path, created again if the setting changed
+     */
+    private FileIndex sourceIndex() {
+        if (sources == null || !sources.getRoot().equals(config.path("code.path"))) {
+            sources = FileIndex.of(config, "code.path", ".java");
+        }
+        return sources;
+    }
+
+    /**
+     * @return The snapshot of resource.path, created again if the setting changed
+     */
+    private FileIndex resourceIndex() {
+        if (resources == null || !resources.getRoot().equals(config.path("resource.path"))) {
+            resources = FileIndex.of(config, "resource.path", "");
+        }
+        return resources;
+    }
+
+    /**
+     * @return The code, release source set and resource directories of the project, or of every module
+     */
+    private List<Path> watchedPaths() {
+        List<Config> projects = Modules.enabled(config)
+            ? new ArrayList<>(Modules.load(config).values())
+            : List.of(config);
+        List<Path> paths = new ArrayList<>();
+        for (Config project : projects) {
+            paths.add(project.path("code.path"));
+            paths.addAll(ReleaseSets.load(project).values());
+            paths.add(project.path("resource.path"));
+        }
+        return paths;
+    }
+
+    /**
+     * Builds every module of a multi-module project. Modules are built in dependency
+     * order, and modules that do not depend on each other are built at the same time
+     * on up to build.parallelism threads. Each module is built incrementally against
+     * the output of its upstream modules, so unchanged modules compile nothing.
+     * Modules depending on a module that failed are skipped.
+     *
+     * @return true if every module was built successfully
+     * @throws Exception If the modules cannot be loaded or a build crashed
+     */
+    private boolean buildModules() throws Exception {
+        LinkedHashMap<String, Config> modules = Modules.load(config);
+        System.out.println("Building " + modules.size() + " module(s) ...");
+
+        // Module builds are kept, so their compilers stay warm between builds in watch mode
+        Map<String, BuildCommand> builds = new HashMap<>();
+        for (Map.Entry<String, Config> module : modules.entrySet()) {
+            BuildCommand build = moduleBuilds.get(module.getKey());
+            if (build == null) {
+                build = new BuildCommand(module.getValue(), new Dependency(module.getValue()));
+                build.name = module.getKey();
+                moduleBuilds.put(module.getKey(), build);
+            } else {
+                build.config = module.getValue();
+                build.dependency = new Dependency(module.getValue());
+            }
+            build.upstream.clear();
+            build.watching = watching;
+            build.cacheStats = cacheStats;
+            builds.put(module.getKey(), build);
+        }
+
+        Map<String, CompletableFuture<Boolean>> results = new HashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.parallelism(), modules.size()));
+        try {
+            // Modules are in build order, so every upstream future already exists
+            for (String name : modules.keySet()) {
+                List<CompletableFuture<Boolean>> upstream = new ArrayList<>();
+                for (String dependencyName : Modules.dependencies(modules.get(name))) {
+                    upstream.add(results.get(dependencyName));
+                }
+                CompletableFuture<Boolean> result = CompletableFuture
+                    .allOf(upstream.toArray(new CompletableFuture<?>[0]))
+                    .thenApplyAsync(ignored -> {
+                        if (upstream.stream().anyMatch(done -> !done.join())) {
+                            System.out.println("[" + name + "] Skipped, an upstream module failed.");
+                            return false;
+                        }
+                        BuildCommand build = builds.get(name);
+                        for (String upstreamName : Modules.upstream(name, modules)) {
+                            build.upstream.add(builds.get(upstreamName));
+                        }
                         try {
-                            Files.delete(p);
-                        } catch (IOException e) {
-                            throw new UncheckedIOException("Failed to delete class file: " + p, e);
+                            return build.build();
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
                         }
-                    });
-            } catch (IOException e) {
-                throw new IOException("Failed to clean build directory", e);
+                    }, pool);
+                results.put(name, result);
             }
+            CompletableFuture.allOf(results.values().toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdownNow();
         }
+        return results.values().stream().allMatch(CompletableFuture::join);
+    }
+
+    /**
+     * Builds this project, or one module of a multi-module project.
+     *
+     * @return true if the compilation succeeded
+     * @throws Exception If there's an error during the build process
+     */
+    private boolean build() throws Exception {
+        dependency.loadDeps();
+        this.log("Building project ...");
 
+        File buildDir = config.path("build.builds").toFile();
+        if (!buildDir.exists()) buildDir.mkdirs();
 
-        List<String> javaFiles = Files.walk(Paths.get(config.get("code.path")))
-            .filter(p -> p.toString().endsWith(".java"))
+        long scanStart = System.nanoTime();
+        FileIndex sources = this.sourceIndex();
+        FileIndex.Changes changes = sources.refresh();
+        List<String> javaFiles = baseSources(config, sources).stream()
             .map(Path::toString)
             .collect(Collectors.toList());
+        // In watch mode the changes were already reported when they were seen
+        if (!watching) {
+            this.log(
+                String.format(
+                    "Scanned %s in %d ms: %s",
+                    config.get("code.path"),
+                    (System.nanoTime() - scanStart) / 1_000_000,
+                    changes
+                )
+            );
+        }
 
         if (javaFiles.isEmpty()) {
             throw new FileNotFoundException(
-                "No Java files found in " + config.get("code.path")
+                "No Java files found in " + config.path("code.path")
             );
         }
 
-        ArrayList<String> shellCommand = new ArrayList<>();
+        compiler.setProcessors(this.processors(), this.generatedSources().toFile());
+        Timings timings = config.get("build.timings").equals("true") ? new Timings() : null;
+        compiler.setTimings(timings);
+        boolean exitedGood;
+        try {
+            exitedGood = this.compile(javaFiles);
+        } finally {
+            compiler.setTimings(null);
+            // Hashes computed during the build are kept for the next one
+            sources.save();
+        }
+        if (timings != null && !timings.isEmpty()) this.report(timings);
+        return exitedGood && this.buildReleaseSets();
+    }
 
-        shellCommand.add(config.get("system.shell")); // sh or cmd
-        shellCommand.add(config.get("system.shell.parm")); // -c or /c
+    /**
+     * Compiles the release source sets in build.release.sets, each with --release against
+     * the base classes and the sets of older releases, see {@link ReleaseSets}. A set is
+     * only compiled again when its sources, the sources of older sets, the compiler, the
+     * dependencies or the API of the base classes changed.
+     *
+     * @return true if every set compiled
+     * @throws Exception If the sources or classes cannot be accessed
+     */
+    private boolean buildReleaseSets() throws Exception {
+        TreeMap<Integer, Path> sets = ReleaseSets.load(config);
+        if (sets.isEmpty()) return true;
+
+        BuildState state = this.buildState();
+        state.load();
+        StringBuilder inputs = new StringBuilder();
+        inputs.append(this.environmentHash()).append('\n');
+        inputs.append(this.classpathHash(state)).append('\n');
+        inputs.append(this.outputAbi()).append('\n');
+
+        List<File> older = new ArrayList<>();
+        for (Map.Entry<Integer, Path> set : sets.entrySet()) {
+            int release = set.getKey();
+            FileIndex index = this.releaseIndex(release, set.getValue());
+            index.refresh();
+            List<Path> files = index.files();
+            inputs.append("release ").append(release).append('\n');
+            for (Path file : files) {
+                inputs.append(BuildState.key(file)).append(' ').append(index.hash(file)).append('\n');
+            }
+            index.save();
+
+            Path output = ReleaseSets.output(config, release);
+            Path stampFile = output.resolveSibling(release + ".stamp");
+            String stamp = BuildState.hash(inputs.toString().getBytes(StandardCharsets.UTF_8));
+            if (Files.isDirectory(output) && Files.exists(stampFile) && Files.readString(stampFile).equals(stamp)) {
+                older.add(0, output.toFile());
+                continue;
+            }
+
+            Files.deleteIfExists(stampFile);
+            this.deleteTree(output);
+            Files.createDirectories(output);
+            if (files.isEmpty()) {
+                this.log("No Java files found in " + set.getValue() + " for release " + release);
+            } else {
+                long start = System.nanoTime();
+                this.log("Compiling " + files.size() + " file(s) for release " + release + " ...");
+                // Older sets come first, their classes replace the base ones on this release too
+                List<File> classpath = new ArrayList<>(older);
+                classpath.addAll(this.classpath());
+                List<String> options = this.compilerOptions(String.valueOf(release));
+                List<File> sources = files.stream().map(Path::toFile).collect(Collectors.toList());
+
+                boolean success = this.useInternalCompiler()
+                    ? releaseCompiler.compile(sources, classpath, output.toFile(), options)
+                    : this.compileExternal(sources, classpath, output.toFile(), options);
+                if (!success) return false;
+                this.log("Compiled in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            Files.writeString(stampFile, stamp);
+            older.add(0, output.toFile());
+        }
+        return true;
+    }
+
+    /**
+     * Lists the sources of code.path, without those of release source sets inside it,
+     * such as ./src/java21 in ./src.
+     *
+     * @param project The configuration of the project
+     * @param sources The snapshot of code.path
+     * @return The sources compiled into the base classes
+     */
+    private static List<Path> baseSources(Config project, FileIndex sources) {
+        List<Path> sets = new ArrayList<>();
+        for (Path set : ReleaseSets.load(project).values()) {
+            sets.add(set.toAbsolutePath());
+        }
+        List<Path> files = new ArrayList<>();
+        for (Path file : sources.files()) {
+            Path absolute = file.toAbsolutePath();
+            if (sets.stream().noneMatch(absolute::startsWith)) files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * @return The snapshot of the sources of a release source set
+     */
+    private FileIndex releaseIndex(int release, Path sources) {
+        return new FileIndex(sources, new File(config.path("build.state").toFile(), "release-" + release + ".index"), ".java");
+    }
+
+    /**
+     * Prints the time spent per compiler phase and the slowest files, and writes the
+     * time per phase of every file to build-timings.csv next to build.builds.
+     *
+     * @param timings The timings collected while compiling
+     * @throws IOException If the report cannot be written
+     */
+    private void report(Timings timings) throws IOException {
+        Path report = config.path("build.builds").toAbsolutePath().normalize()
+            .resolveSibling("build-timings.csv");
+        timings.write(report);
+
+        this.log("Compiler phases: " + timings.phases());
+        int top = Integer.parseInt(config.get("build.timings.top").trim());
+        if (top > 0) {
+            this.log("Slowest files:");
+            for (String line : timings.slowest(top)) {
+                this.log(line);
+            }
+        }
+        this.log("Timings of every file written to " + report);
+    }
+
+    /**
+     * Compiles the project with the compiler and mode chosen in the configuration.
+     *
+     * @param javaFiles Paths of all Java source files in the project
+     * @return true if the compilation succeeded
+     * @throws Exception If there's an error during the build process
+     */
+    private boolean compile(List<String> javaFiles) throws Exception {
+        boolean exitedGood;
+        if (!useInternalCompiler()) {
+            // The forked compiler does not report what it wrote, so start over next time
+            this.buildState().clear();
+            this.cleanClasses();
+            this.cleanGenerated(null);
+            exitedGood = this.compileExternal(javaFiles);
+        } else if (config.get("build.incremental").equals("true")) {
+            exitedGood = this.buildIncremental(javaFiles);
+        } else {
+            this.buildState().clear();
+            this.cleanClasses();
+            this.cleanGenerated(null);
+            exitedGood = this.compileInternal(javaFiles);
+        }
+        return exitedGood;
+    }
 
-        ArrayList<String> buildCommand = new ArrayList<>();
-        buildCommand.add(config.get("build.cmd")); //javac
-        buildCommand.add("-d"); // speficy where to put complied classes
-        buildCommand.add(config.get("build.builds")); // ./classes
-        buildCommand.add("-cp"); // speficy classpath
+    /**
+     * Fingerprints the API of this project's output, so modules depending on it
+     * know when they have to recompile. Uses the fingerprints in the build state,
+     * or the class files themselves after a non-incremental build.
+     *
+     * @return The API fingerprint of build.builds
+     * @throws IOException If the state or the class files cannot be read
+     */
+    private String outputAbi() throws IOException {
+        StringBuilder abi = new StringBuilder();
+        BuildState state = this.buildState();
+        if (state.load() && !state.getSources().isEmpty()) {
+            for (Map.Entry<String, BuildState.Source> entry : new TreeMap<>(state.getSources()).entrySet()) {
+                abi.append(entry.getValue().abi).append(entry.getValue().constants).append('\n');
+            }
+        } else {
+            List<Path> classes = Files.walk(config.path("build.builds"))
+                .filter(p -> p.toString().endsWith(".class"))
+                .sorted()
+                .collect(Collectors.toList());
+            for (Path classFile : classes) {
+                abi.append(ClassFile.read(Files.readAllBytes(classFile)).abi()).append('\n');
+            }
+        }
+        return BuildState.hash(abi.toString().getBytes(StandardCharsets.UTF_8));
+    }
 
-        buildCommand.add(
-            // ./lib/*:./classes/*:*
+    /**
+     * Returns the classpath to compile against: the compile and provided dependency
+     * jars, the output and jars of upstream modules, and build.builds itself.
+     *
+     * @return The classpath entries
+     */
+    private List<File> classpath() {
+        ArrayList<File> classpath = new ArrayList<>(dependency.list(Dependency.Classpath.COMPILE));
+        for (BuildCommand module : upstream) {
+            classpath.add(module.config.path("build.builds").toFile());
+            classpath.addAll(module.dependency.list(Dependency.Classpath.COMPILE));
+        }
+        classpath.add(config.path("build.builds").toFile());
+        return classpath;
+    }
+
+    /**
+     * Prints a message, prefixed with the module name when building modules.
+     *
+     * @param message The message to print
+     */
+    private void log(String message) {
+        System.out.println(name.isEmpty() ? message : "[" + name + "] " + message);
+    }
+
+    /**
+     * Compiles only the sources that changed since the last build. Their dependents
+     * are recompiled only when the public API of a changed source actually changed,
+     * which is found by comparing API fingerprints of the old and new class files.
+     * Falls back to a full build when there is no usable state.
+     *
+     * @param javaFiles Paths of all Java source files in the project
+     * @return true if the compilation succeeded
+     * @throws Exception If sources, classes or the state cannot be accessed
+     */
+    private boolean buildIncremental(List<String> javaFiles) throws Exception {
+        BuildState state = this.buildState();
+        boolean known = state.load();
+        // Kept to partition the sources for parallel compilation, even on a full build
+        Map<String, BuildState.Source> graph = new HashMap<>(state.getSources());
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+        Map<String, String> paths = new HashMap<>();
+        for (String javaFile : javaFiles) {
+            Path path = Paths.get(javaFile);
+            String key = BuildState.key(path);
+            hashes.put(key, this.sourceIndex().hash(path));
+            paths.put(key, javaFile);
+        }
+        // Generated sources follow from the sources, so they are not part of the cache key
+        Map<String, String> sourceHashes = new LinkedHashMap<>(hashes);
+
+        String environment = this.environmentHash();
+        String classpath = this.classpathHash(state);
+        boolean full = !known || !environment.equals(state.getEnvironment());
+        if (known && !full && !classpath.equals(state.getClasspath())) {
+            this.log("The API of a dependency changed, doing a full build.");
+            full = true;
+        }
+
+        Set<String> changed = new LinkedHashSet<>();
+        Set<String> removed = new LinkedHashSet<>();
+        if (!full) {
+            // Generated sources kept from the last build take part like any other source
+            for (String key : state.getGenerated().keySet()) {
+                Path path = Paths.get(key);
+                if (this.isGeneratedSource(path) && Files.exists(path)) {
+                    hashes.put(key, BuildState.hash(Files.readAllBytes(path)));
+                    paths.put(key, path.toString());
+                }
+            }
+            for (Map.Entry<String, String> entry : hashes.entrySet()) {
+                BuildState.Source previous = state.getSources().get(entry.getKey());
+                if (
+                    previous == null ||
+                    !previous.hash.equals(entry.getValue()) ||
+                    this.isMissingClasses(previous)
+                ) {
+                    changed.add(entry.getKey());
+                }
+            }
+            for (String key : state.getSources().keySet()) {
+                if (!hashes.containsKey(key)) removed.add(key);
+            }
+            // Deleted generated files are generated again from the sources they came from
+            for (Map.Entry<String, BuildState.Generated> entry : state.getGenerated().entrySet()) {
+                if (Files.exists(Paths.get(entry.getKey()))) continue;
+                for (String origin : entry.getValue().origins) {
+                    if (sourceHashes.containsKey(origin)) changed.add(origin);
+                }
+            }
+
+            boolean aggregating = state.getGenerated().values().stream()
+                .anyMatch(BuildState.Generated::isAggregating);
+            if (changed.isEmpty() && removed.isEmpty()) {
+                this.log("Everything is up to date, nothing to compile.");
+                return true;
+            } else if (aggregating) {
+                this.log("An annotation processor generated files from several sources, doing a full build.");
+                full = true;
+                hashes.keySet().retainAll(sourceHashes.keySet());
+                paths.keySet().retainAll(sourceHashes.keySet());
+            } else {
+                this.log(
+                    String.format("%d changed and %d removed source(s)", changed.size(), removed.size())
+                );
+            }
+        }
+        if (full) {
+            this.cleanClasses();
+            this.cleanGenerated(state);
+            state.getSources().clear();
+            changed.clear();
+            removed.clear();
+            changed.addAll(hashes.keySet());
+        }
+
+        // After an edit the lookup almost never hits, and storing zips the whole class tree,
+        // so incremental builds leave the cache alone unless build.cache.incremental is set
+        BuildCache cache = full || config.get("build.cache.incremental").equals("true") ? this.buildCache() : null;
+        String cacheKey = cache == null ? null : this.cacheKey(environment, classpath, sourceHashes);
+        if (cache != null && !cacheFailed) {
+            long start = System.nanoTime();
+            try {
+                if (cache.restore(cacheKey, config.path("build.builds"), this.stateFile().toPath(), this.generatedSources())) {
+                    this.log(
+                        "Restored from the build cache in " + (System.nanoTime() - start) / 1_000_000 + " ms"
+                    );
+                    return true;
+                }
+            } catch (IOException e) {
+                // The broken entry is deleted, but the remote cache may still serve it, so
+                // compile everything here instead of looking it up again
+                this.log("Could not restore from the build cache, " + e.getMessage() + ", compiling instead");
+                cacheFailed = true;
+                this.cleanClasses();
+                this.cleanGenerated(state);
+                state.getSources().clear();
+                changed.clear();
+                removed.clear();
+                changed.addAll(sourceHashes.keySet());
+                hashes.keySet().retainAll(sourceHashes.keySet());
+                paths.keySet().retainAll(sourceHashes.keySet());
+            }
+        }
+
+        state.setEnvironment(environment);
+        state.setClasspath(classpath);
+
+        Map<String, BuildState.Source> previous = new HashMap<>(state.getSources());
+        Set<String> changedClasses = new HashSet<>();
+        boolean constantsChanged = false;
+        for (String key : removed) {
+            BuildState.Source source = state.getSources().remove(key);
+            this.deleteClasses(source.classes);
+            changedClasses.addAll(source.classes);
+            constantsChanged |= !source.constants.isEmpty();
+        }
+        Set<String> stale = this.invalidateGenerated(state, removed, hashes, paths);
+
+        Set<String> compiled = new HashSet<>();
+        Set<String> toCompile = changed;
+        if (!removed.isEmpty()) {
+            Set<String> dependents = new LinkedHashSet<>(
+                constantsChanged ? hashes.keySet() : state.dependentsOf(changedClasses)
+            );
+            dependents.retainAll(hashes.keySet());
+            dependents.removeAll(toCompile);
+            if (!dependents.isEmpty()) {
+                this.log("Recompiling " + dependents.size() + " source(s) depending on removed sources");
+            }
+            toCompile.addAll(dependents);
+            constantsChanged = false;
+            changedClasses.clear();
+        }
+        while (!toCompile.isEmpty()) {
+            // The processors generate these again, from the sources about to be compiled
+            stale.addAll(this.invalidateGenerated(state, toCompile, hashes, paths));
+            toCompile.removeAll(stale);
+            for (String key : toCompile) {
+                BuildState.Source source = state.getSources().remove(key);
+                if (source != null) this.deleteClasses(source.classes);
+            }
+
+            Map<String, BuildState.Source> current = new HashMap<>(graph);
+            current.putAll(state.getSources());
+            Map<Path, List<String>> outputs = this.compileBatches(toCompile, paths, current);
+            if (outputs == null) {
+                state.save();
+                return false;
+            }
+            Set<String> affected = new LinkedHashSet<>(toCompile);
+            if (compiler.getProcessors() != null) {
+                affected.addAll(this.recordGenerated(state, compiler.getProcessors().getGenerated(), hashes, paths));
+                affected.addAll(stale);
+                stale.clear();
+            }
+            this.record(state, hashes, outputs);
+            compiled.addAll(affected);
+
+            for (String key : affected) {
+                BuildState.Source before = previous.get(key);
+                BuildState.Source after = state.getSources().get(key);
+                if (before == null) continue;
+                if (after == null) {
+                    // A generated source that was not generated again
+                    changedClasses.addAll(before.classes);
+                    constantsChanged |= !before.constants.isEmpty();
+                    continue;
+                }
+                if (!before.abi.equals(after.abi)) {
+                    changedClasses.addAll(before.classes);
+                    changedClasses.addAll(after.classes);
+                }
+                constantsChanged |= !before.constants.equals(after.constants);
+            }
+
+            // Constants are inlined without a reference, so any source could use them
+            Set<String> next = new LinkedHashSet<>(
+                constantsChanged ? hashes.keySet() : state.dependentsOf(changedClasses)
+            );
+            next.removeAll(compiled);
+            next.retainAll(hashes.keySet());
+            if (!next.isEmpty()) {
+                this.log(
+                    (constantsChanged ? "A visible constant changed" : "The API changed") +
+                    ", recompiling " + next.size() + " dependent source(s)"
+                );
+            }
+            constantsChanged = false;
+            changedClasses.clear();
+            toCompile = next;
+        }
+
+        state.save();
+        if (cache != null) {
+            try {
+                cache.store(cacheKey, config.path("build.builds"), this.stateFile().toPath(), this.generatedSources());
+                this.log("Stored in the build cache");
+            } catch (IOException e) {
+                this.log("Could not store in the build cache, " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the files generated from any of the given sources, together with the
+     * classes compiled from them, since compiling those sources generates them again.
+     *
+     * @param state The build state recording the generated files
+     * @param origins Relative paths of the sources about to be compiled or removed
+     * @param hashes Content hashes of the current sources, without the deleted ones afterwards
+     * @param paths Paths of the current sources, without the deleted ones afterwards
+     * @return Relative paths of the deleted generated sources
+     * @throws IOException If a file cannot be deleted
+     */
+    private Set<String> invalidateGenerated(
+        BuildState state,
+        Set<String> origins,
+        Map<String, String> hashes,
+        Map<String, String> paths
+    ) throws IOException {
+        Set<String> deleted = new LinkedHashSet<>();
+        Iterator<Map.Entry<String, BuildState.Generated>> generated = state.getGenerated().entrySet().iterator();
+        while (generated.hasNext()) {
+            Map.Entry<String, BuildState.Generated> entry = generated.next();
+            if (Collections.disjoint(entry.getValue().origins, origins)) continue;
+            generated.remove();
+            Files.deleteIfExists(Paths.get(entry.getKey()));
+
+            BuildState.Source source = state.getSources().remove(entry.getKey());
+            if (source != null) this.deleteClasses(source.classes);
+            if (hashes.remove(entry.getKey()) != null) deleted.add(entry.getKey());
+            paths.remove(entry.getKey());
+        }
+        return deleted;
+    }
+
+    /**
+     * Records the files generated by the last compilation and the sources they came from.
+     * Generated sources are added to the current sources.
+     *
+     * @param state The build state to update
+     * @param generated The source files every generated file came from, see {@link Processors#getGenerated()}
+     * @param hashes Content hashes of the current sources, generated sources are added
+     * @param paths Paths of the current sources, generated sources are added
+     * @return Relative paths of the generated sources
+     * @throws IOException If a generated source cannot be read
+     */
+    private Set<String> recordGenerated(
+        BuildState state,
+        Map<Path, Set<Path>> generated,
+        Map<String, String> hashes,
+        Map<String, String> paths
+    ) throws IOException {
+        Set<String> sources = new LinkedHashSet<>();
+        for (Map.Entry<Path, Set<Path>> entry : generated.entrySet()) {
+            String key = BuildState.key(entry.getKey());
+            BuildState.Generated file = new BuildState.Generated();
+            for (Path origin : entry.getValue()) {
+                file.origins.add(BuildState.key(origin));
+            }
+            state.getGenerated().put(key, file);
+
+            if (this.isGeneratedSource(entry.getKey())) {
+                hashes.put(key, BuildState.hash(Files.readAllBytes(entry.getKey())));
+                paths.put(key, entry.getKey().toString());
+                sources.add(key);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * @return The build cache shared by the user's projects, backed by the remote cache
+     *         in build.cache.remote if set and not offline, or null if build.cache is off
+     *         or JSB is watching
+     */
+    private BuildCache buildCache() {
+        if (watching || !config.get("build.cache").equals("true")) return null;
+        long maxBytes = Long.parseLong(config.get("build.cache.size").trim()) * 1024 * 1024;
+        BuildCache cache = new BuildCache(config.path("build.cache.path"), maxBytes);
+        cache.setSession(cacheStats);
+        if (!config.get("build.cache.remote").isBlank() && !Downloader.isOffline()) {
+            cache.setRemote(
+                config.get("build.cache.remote").trim(),
+                Long.parseLong(config.get("build.cache.remote.timeout").trim()),
+                config.get("build.cache.remote.push").equals("true")
+            );
+        }
+        return cache;
+    }
+
+    /**
+     * Hashes every input of a compilation into the key of its build cache entry:
+     * the compiler version and options, the API of the classpath and the content
+     * and path of every source.
+     *
+     * @param environment The hash from {@link #environmentHash()}
+     * @param classpath The hash from {@link #classpathHash(BuildState)}
+     * @param hashes Content hashes of the current sources, by state key
+     * @return The cache key
+     */
+    private String cacheKey(String environment, String classpath, Map<String, String> hashes) {
+        StringBuilder inputs = new StringBuilder();
+        inputs.append(environment).append('\n').append(classpath).append('\n');
+        for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet()) {
+            inputs.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return BuildState.hash(inputs.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Records the classes written by the last compilation in the build state,
+     * along with the project classes they refer to and their API fingerprints.
+     *
+     * @param state The build state to update
+     * @param hashes Content hashes of the current sources, by state key
+     * @param outputs The classes written for each source, see {@link Compiler#getOutputs()}
+     * @throws IOException If a class file cannot be read
+     */
+    private void record(
+        BuildState state,
+        Map<String, String> hashes,
+        Map<Path, List<String>> outputs
+    ) throws IOException {
+        for (Map.Entry<Path, List<String>> output : outputs.entrySet()) {
+            String key = BuildState.key(output.getKey());
+            BuildState.Source source = new BuildState.Source();
+            source.hash = hashes.get(key);
+            source.classes.addAll(output.getValue());
+            Collections.sort(source.classes);
+
+            StringBuilder abi = new StringBuilder();
+            StringBuilder constants = new StringBuilder();
+            for (String className : source.classes) {
+                ClassFile classFile = ClassFile.read(Files.readAllBytes(this.classFile(className)));
+                source.references.addAll(classFile.references);
+                if (classFile.superName != null) source.supertypes.add(classFile.superName);
+                source.supertypes.addAll(classFile.interfaces);
+                abi.append(classFile.abi());
+                constants.append(classFile.constants());
+            }
+            source.abi = BuildState.hash(abi.toString().getBytes(StandardCharsets.UTF_8));
+            source.constants = constants.length() == 0
+                ? ""
+                : BuildState.hash(constants.toString().getBytes(StandardCharsets.UTF_8));
+            state.getSources().put(key, source);
+        }
+
+        Set<String> projectClasses = new HashSet<>();
+        for (BuildState.Source source : state.getSources().values()) {
+            projectClasses.addAll(source.classes);
+        }
+        // Other sources keep referring to deleted classes, until they are recompiled for it
+        for (Path output : outputs.keySet()) {
+            BuildState.Source source = state.getSources().get(BuildState.key(output));
+            source.references.retainAll(projectClasses);
+            source.supertypes.retainAll(projectClasses);
+        }
+    }
+
+    /**
+     * Hashes everything besides sources and dependencies that affects
+     * compilation: the compiler version, the options and the annotation processors.
+     *
+     * @return The environment hash
+     * @throws IOException If a processor jar cannot be read
+     */
+    private String environmentHash() throws IOException {
+        StringBuilder environment = new StringBuilder();
+        environment.append(Runtime.version()).append('\n');
+        environment.append(this.compilerOptions()).append('\n');
+        // By content, so the cache key is the same wherever the processors are stored
+        for (File entry : processorPath) {
+            environment.append(entry.getName()).append(' ').append(this.contentHash(entry)).append('\n');
+        }
+        return BuildState.hash(environment.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hashes the API of the dependency jars and upstream modules, in classpath order. Replacing a jar
+     * with one that has the same API, e.g. a bug fix release, keeps the same hash.
+     *
+     * @param state The build state caching the API fingerprint of each jar
+     * @return The classpath hash
+     * @throws IOException If a jar cannot be read
+     */
+    private String classpathHash(BuildState state) throws IOException {
+        StringBuilder classpath = new StringBuilder();
+        for (File jar : dependency.list(Dependency.Classpath.COMPILE)) {
+            classpath.append(state.jarAbi(jar)).append('\n');
+        }
+        for (BuildCommand module : upstream) {
+            classpath.append(module.name).append(' ').append(module.outputAbi()).append('\n');
+            for (File jar : module.dependency.list(Dependency.Classpath.COMPILE)) {
+                classpath.append(state.jarAbi(jar)).append('\n');
+            }
+        }
+        return BuildState.hash(classpath.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The build state stored in the build.state directory
+     */
+    private BuildState buildState() {
+        return new BuildState(this.stateFile());
+    }
+
+    /**
+     * @return The file the build state is stored in
+     */
+    private File stateFile() {
+        return new File(config.path("build.state").toFile(), "build-state");
+    }
+
+    /**
+     * @return The directory annotation processors write sources to, in build.state
+     */
+    private Path generatedSources() {
+        return config.path("build.state").resolve("generated");
+    }
+
+    /**
+     * @param path The path of a file an annotation processor generated
+     * @return true if it is a source, which is compiled along with the project sources
+     */
+    private boolean isGeneratedSource(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(this.generatedSources().toAbsolutePath())
+            && path.toString().endsWith(".java");
+    }
+
+    /**
+     * Deletes the files generated by annotation processors, the generated sources directory
+     * and the files recorded in the build state, which may be resources in the build directory.
+     *
+     * @param state The build state recording the generated files, or null if it is gone
+     * @throws IOException If a file cannot be deleted
+     */
+    private void cleanGenerated(BuildState state) throws IOException {
+        if (state != null) {
+            for (String key : state.getGenerated().keySet()) {
+                Files.deleteIfExists(Paths.get(key));
+            }
+            state.getGenerated().clear();
+        }
+        this.deleteTree(this.generatedSources());
+    }
+
+    /**
+     * Deletes a directory with everything in it, if it exists.
+     *
+     * @param root The directory to delete
+     * @throws IOException If a file cannot be deleted
+     */
+    private void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> tree = Files.walk(root)) {
+            for (Path file : tree.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Returns the annotation processors on the processor path, loading them again when
+     * build.processors changed. Maven coordinates are downloaded to processors in dep.path,
+     * away from the dependencies, so processors never end up on the classpath. The ones in
+     * build.processors.untracked run without the recording environment.
+     *
+     * @return The processors, or null if build.processors is empty
+     * @throws Exception If a processor jar cannot be downloaded or opened
+     */
+    private Processors processors() throws Exception {
+        List<File> path = new ArrayList<>();
+        for (String entry : config.get("build.processors").split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            String[] parts = entry.split(":");
+            Path local = config.getBaseDir().toPath().resolve(entry).normalize();
+            if (parts.length != 3 || Files.exists(local)) {
+                path.add(local.toFile());
+                continue;
+            }
+
+            File jar = config.path("dep.path").resolve("processors").resolve(parts[1] + "-" + parts[2] + ".jar").toFile();
+            if (!jar.exists()) {
+                this.log("Loading annotation processor: " + entry);
+                ArtifactStore.link(dependency.get(entry).toPath(), jar.toPath());
+            }
+            path.add(jar);
+        }
+
+        if (processors != null && !path.equals(processorPath)) {
+            processors.close();
+            processors = null;
+        }
+        processorPath = path;
+        if (processors == null && !path.isEmpty()) processors = new Processors(path);
+        if (processors != null) {
+            Set<String> untracked = new HashSet<>();
+            for (String name : config.get("build.processors.untracked").split(",")) {
+                if (!name.isBlank()) untracked.add(name.trim());
+            }
+            processors.setUntracked(untracked);
+        }
+        return processors;
+    }
+
+    /**
+     * Hashes the content of a file, or of every file in a directory tree along with its path.
+     *
+     * @param file The file or directory
+     * @return The hash
+     * @throws IOException If a file cannot be read
+     */
+    private String contentHash(File file) throws IOException {
+        if (!file.isDirectory()) return BuildState.hash(Files.readAllBytes(file.toPath()));
+        StringBuilder tree = new StringBuilder();
+        try (Stream<Path> files = Files.walk(file.toPath())) {
+            for (Path path : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                tree.append(file.toPath().relativize(path)).append(' ')
+                    .append(BuildState.hash(Files.readAllBytes(path))).append('\n');
+            }
+        }
+        return BuildState.hash(tree.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes every class file in the build directory.
+     *
+     * @throws IOException If a class file cannot be deleted
+     */
+    private void cleanClasses() throws IOException {
+        try {
+            Files.walk(config.path("build.builds"))
+                .filter(p -> p.toString().endsWith(".class"))
+                .forEach(p -> {
+                    try {
+                        Files.delete(p);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to delete class file: " + p, e);
+                    }
+                });
+        } catch (IOException | UncheckedIOException e) {
+            throw new IOException("Failed to clean build directory", e);
+        }
+    }
+
+    /**
+     * Checks if any class file of a source is gone, e.g. after packaging cleaned build.builds.
+     *
+     * @param source The source as recorded in the build state
+     * @return true if the source has to be compiled again
+     */
+    private boolean isMissingClasses(BuildState.Source source) {
+        for (String className : source.classes) {
+            if (!Files.exists(this.classFile(className))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the class files of the given classes from the build directory.
+     *
+     * @param classNames Internal names of the classes to delete
+     * @throws IOException If a class file cannot be deleted
+     */
+    private void deleteClasses(List<String> classNames) throws IOException {
+        for (String className : classNames) {
+            Files.deleteIfExists(this.classFile(className));
+        }
+    }
+
+    /**
+     * @param className Internal name of a class, e.g. pkg/Outer$Inner
+     * @return The path of its class file in the build directory
+     */
+    private Path classFile(String className) {
+        return config.path("build.builds").resolve(className + ".class");
+    }
+
+    /**
+     * Checks whether the in-process compiler should be used.
+     * Falls back to the external build.cmd if no system compiler is available.
+     *
+     * @return true if sources should be compiled in-process
+     */
+    private boolean useInternalCompiler() {
+        if ("external".equals(config.get("build.compiler"))) return false;
+        if (!compiler.available()) {
+            this.log(
+                "No in-process compiler available, falling back to " +
+                config.get("build.cmd")
+            );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles sources in parallel batches when there are enough of them and the
+     * dependency graph allows it, see {@link BuildState#partition}. Every layer of
+     * batches is compiled against the output of the earlier layers. If any batch
+     * fails, for example because the graph is out of date, all sources are compiled
+     * again in a single compilation so the errors are reported as usual.
+     *
+     * @param keys Relative paths of the sources to compile
+     * @param paths Paths of the sources as found in code.path, by relative path
+     * @param graph The dependency graph of the previous build
+     * @return The classes written for each source, or null if compilation failed
+     * @throws Exception If the compiler cannot access the files or a batch crashed
+     */
+    private Map<Path, List<String>> compileBatches(
+        Collection<String> keys,
+        Map<String, String> paths,
+        Map<String, BuildState.Source> graph
+    ) throws Exception {
+        long start = System.nanoTime();
+        // Processors have to see all sources at once, and record what each of them generated
+        int threads = compiler.getProcessors() != null
+            ? 1
+            : Math.min(this.parallelism(), keys.size() / MIN_BATCH_SIZE);
+        List<List<List<String>>> layers = threads > 1
+            ? BuildState.partition(graph, keys, threads)
+            : List.of();
+        boolean parallel = layers.stream().anyMatch(layer -> layer.size() > 1);
+
+        if (!parallel) {
+            boolean success = this.compileInternal(
+                keys.stream().map(paths::get).collect(Collectors.toList())
+            );
+            return success ? compiler.getOutputs() : null;
+        }
+
+        int batchCount = layers.stream().mapToInt(List::size).sum();
+        this.log(
             String.format(
-                "\"%s/*%s%s/*%s*\"",
-                config.get("dep.path"),
-                config.get("system.sep"),
-                config.get("build.builds"),
-                config.get("system.sep"),
-                "*"
+                "Compiling %d file(s) in %d batches over %d layer(s) on %d threads ...",
+                keys.size(),
+                batchCount,
+                layers.size(),
+                threads
             )
         );
 
+        Map<Path, List<String>> outputs = new HashMap<>();
+        List<Compiler> finished = new ArrayList<>();
+        boolean parallelFailed = false;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (List<List<String>> layer : layers) {
+                List<Future<Boolean>> results = new ArrayList<>();
+                List<Compiler> compilers = new ArrayList<>();
+                for (List<String> batch : layer) {
+                    Compiler batchCompiler = new Compiler();
+                    batchCompiler.setBuffered(true);
+                    batchCompiler.setTimings(compiler.getTimings());
+                    compilers.add(batchCompiler);
+                    List<String> files = batch.stream().map(paths::get).collect(Collectors.toList());
+                    results.add(pool.submit(() -> this.compileWith(batchCompiler, files)));
+                }
+                finished.addAll(compilers);
+
+                // Wait for the whole layer, so no batch is still writing classes on a retry
+                boolean layerSucceeded = true;
+                for (Future<Boolean> result : results) {
+                    layerSucceeded &= result.get();
+                }
+                if (!layerSucceeded) {
+                    parallelFailed = true;
+                    break;
+                }
+                for (Compiler batchCompiler : compilers) {
+                    outputs.putAll(batchCompiler.getOutputs());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            for (Compiler batchCompiler : finished) {
+                batchCompiler.close();
+            }
+        }
+
+        if (parallelFailed) {
+            this.log("A batch failed, retrying as a single compilation ...");
+            boolean success = this.compileInternal(
+                keys.stream().map(paths::get).collect(Collectors.toList())
+            );
+            return success ? compiler.getOutputs() : null;
+        }
+
+        for (Compiler batchCompiler : finished) {
+            batchCompiler.flush();
+        }
+        this.log(
+            "Compiled in " + (System.nanoTime() - start) / 1_000_000 + " ms"
+        );
+        return outputs;
+    }
+
+    /**
+     * @return The number of threads to compile with, from build.parallelism
+     */
+    private int parallelism() {
+        String value = config.get("build.parallelism");
+        if (value == null || value.equals("auto")) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, Integer.parseInt(value.trim()));
+    }
+
+    /**
+     * Compiles the given sources with the in-process {@link Compiler}.
+     *
+     * @param javaFiles Paths of the Java source files to compile
+     * @return true if the compilation succeeded
+     * @throws IOException If the compiler cannot access the files
+     */
+    private boolean compileInternal(List<String> javaFiles) throws IOException {
+        long start = System.nanoTime();
+        this.log("Compiling " + javaFiles.size() + " file(s) in-process ...");
+        boolean success = this.compileWith(compiler, javaFiles);
+        this.log(
+            "Compiled in " + (System.nanoTime() - start) / 1_000_000 + " ms"
+        );
+        return success;
+    }
+
+    /**
+     * Compiles sources with the given compiler, against the dependencies and build.builds.
+     *
+     * @param compiler The compiler to use
+     * @param javaFiles Paths of the Java source files to compile
+     * @return true if the compilation succeeded
+     * @throws IOException If the compiler cannot access the files
+     */
+    private boolean compileWith(Compiler compiler, List<String> javaFiles) throws IOException {
+        return compiler.compile(
+            javaFiles.stream().map(File::new).collect(Collectors.toList()),
+            this.classpath(),
+            config.path("build.builds").toFile(),
+            this.compilerOptions()
+        );
+    }
+
+    /**
+     * @return The javac options for the in-process compiler
+     */
+    private List<String> compilerOptions() {
+        return this.compilerOptions(config.get("build.release"));
+    }
+
+    /**
+     * @param release The Java release to compile for, or blank for the release of the compiler
+     * @return The javac options for the in-process compiler
+     */
+    private List<String> compilerOptions(String release) {
+        ArrayList<String> options = new ArrayList<>();
         if (config.get("build.verbose").equals("true")) {
-            buildCommand.add("-verbose");
+            options.add("-verbose");
+        }
+        if (!release.isBlank()) {
+            options.add("--release");
+            options.add(release.trim());
         }
+        return options;
+    }
 
-        buildCommand.add(String.join(" ", javaFiles));
-        shellCommand.add(String.join(" ", buildCommand));
+    /**
+     * Compiles sources by forking build.cmd through the system shell, with an exact
+     * classpath and output directory.
+     *
+     * @param sources The Java source files to compile
+     * @param classpath The classpath entries to compile against
+     * @param outputDir The directory to write class files to
+     * @param options Any extra javac options
+     * @return true if the command exited successfully
+     */
+    private boolean compileExternal(List<File> sources, List<File> classpath, File outputDir, List<String> options) {
+        ArrayList<String> javacOptions = new ArrayList<>(options);
+        javacOptions.add("-d");
+        javacOptions.add(outputDir.toString());
+        return this.runExternal(
+            javacOptions,
+            classpath,
+            sources.stream().map(File::toString).collect(Collectors.toList())
+        );
+    }
 
-        System.out.println("Running the command: " + shellCommand);
-        boolean exitedGood = Runner.runCommand(shellCommand);
-        if (exitedGood) System.out.println("Building exited successfully!");
-        else System.out.println("Building probably failed : (");
+    /**
+     * Compiles the given sources by forking build.cmd through the system shell.
+     *
+     * @param javaFiles Paths of the Java source files to compile
+     * @return true if the command exited successfully
+     */
+    private boolean compileExternal(List<String> javaFiles) {
+        ArrayList<String> javacOptions = new ArrayList<>();
+        javacOptions.add("-d"); // speficy where to put complied classes
+        javacOptions.add(config.path("build.builds").toString()); // ./classes
+
+        if (config.get("build.verbose").equals("true")) {
+            javacOptions.add("-verbose");
+        }
+        if (!config.get("build.release").isBlank()) {
+            javacOptions.add("--release");
+            javacOptions.add(config.get("build.release").trim());
+        }
+        if (!processorPath.isEmpty()) {
+            javacOptions.add("-processorpath");
+            javacOptions.add(processorPath.stream().map(File::toString).collect(Collectors.joining(config.get("system.sep"))));
+            javacOptions.add("-s");
+            javacOptions.add(this.generatedSources().toString());
+        }
+
+        // The jars of each scope, not all of dep.path, so test and runtime jars stay out
+        return this.runExternal(javacOptions, this.classpath(), javaFiles);
+    }
+
+    /**
+     * Runs build.cmd through the system shell, with the options, the exact classpath and
+     * the sources in an argument file. Neither is limited by the length of the command
+     * line, and paths with spaces need no quoting for the shell.
+     *
+     * @param javacOptions Options for build.cmd, such as -d
+     * @param classpath The classpath entries, in order
+     * @param sources Paths of the Java source files to compile
+     * @return true if the command exited successfully
+     */
+    private boolean runExternal(List<String> javacOptions, List<File> classpath, List<String> sources) {
+        ArrayList<String> shellCommand = new ArrayList<>();
+        shellCommand.add(config.get("system.shell")); // sh or cmd
+        shellCommand.add(config.get("system.shell.parm")); // -c or /c
+
+        List<String> args = new ArrayList<>(javacOptions);
+        args.add("-cp"); // speficy classpath
+        args.add(classpath.stream().map(File::toString).collect(Collectors.joining(config.get("system.sep"))));
+        args.addAll(sources);
+        Path argFile = null;
+        try {
+            Files.createDirectories(config.path("build.state"));
+            // Modules and release sets may compile at the same time, each gets its own file
+            argFile = Files.createTempFile(config.path("build.state"), "javac", ".args");
+            shellCommand.add(config.get("build.cmd") + " " + Runner.argFile(argFile, args));
+
+            this.log("Running the command: " + shellCommand);
+            return Runner.runCommand(shellCommand);
+        } catch (IOException e) {
+            this.log("Could not write the javac argument file: " + e.getMessage());
+            return false;
+        } finally {
+            if (argFile != null) argFile.toFile().delete();
+        }
     }
 
     /**
@@ -158,7 +1548,16 @@ public class BuildCommand implements IHandler {
             "Builds all Java source files into class files\n" +
             "  - Output is saved to the ./classes directory\n" +
             "  - Also downloads and installs any pending dependencies\n" +
-            "  - Usage: build\n"
+            "  - Compiles in-process unless build.compiler is set to external\n" +
+            "  - Only recompiles changed sources, and their dependents if the API changed\n" +
+            "  - Compiles independent sources in parallel (build.parallelism)\n" +
+            "  - Restores outputs from the build cache when the same inputs were built before\n" +
+            "  - Builds the modules listed in build.modules in dependency order\n" +
+            "  - Rebuilds whenever a source or resource changes with --watch\n" +
+            "  - Runs the annotation processors in build.processors, apart from the classpath\n" +
+            "  - Compiles the release source sets in build.release.sets with --release\n" +
+            "  - Reports the slowest files and compiler phases if build.timings is true\n" +
+            "  - Usage: build <?--watch>\n"
         );
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package JSBCommands;
+
+import Command.Command;
+import Command.IHandler;
+import JSBCommands.Util.BuildCache;
+import JSBCommands.Util.CacheServer;
+import JSBCommands.Util.Config;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Handles commands for inspecting and clearing the build cache.
+ */
+public class CacheCommand implements IHandler {
+
+    /** Configuration manager instance */
+    Config config;
+
+    /**
+     * Constructs a new CacheCommand handler.
+     * @param config The configuration manager instance
+     */
+    public CacheCommand(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Handles cache commands.
+     * Supports three actions:
+     * - stats: Shows the hit and miss statistics and the size of the cache
+     * - clear: Deletes every cache entry
+     * - serve: Runs a remote build cache until JSB is stopped
+     *
+     * @param command The command object containing the action
+     * @throws Exception If the cache directory cannot be accessed
+     */
+    @Override
+    public void handleCommand(Command command) throws Exception {
+        if (!this.config.ready()) this.config.initConfig();
+        BuildCache cache = new BuildCache(
+            config.path("build.cache.path"),
+            Long.parseLong(config.get("build.cache.size").trim()) * 1024 * 1024
+        );
+
+        switch (command.get(0)) {
+            case "stats":
+                Properties stats = cache.stats();
+                System.out.println("Build cache in " + config.path("build.cache.path") + ":");
+                System.out.println("  " + cache.summary());
+                for (Object key : new TreeMap<>(stats).keySet()) {
+                    System.out.println("  - " + key + ": " + stats.get(key));
+                }
+                break;
+            case "clear":
+                cache.clear();
+                System.out.println("Build cache cleared.");
+                break;
+            case "serve":
+                int port = command.get(1).isBlank() ? 5071 : Integer.parseInt(command.get(1));
+                Path dir = command.get(2).isBlank()
+                    ? config.path("build.cache.path")
+                    : Paths.get(command.get(2));
+                CacheServer server = new CacheServer(port, dir);
+                System.out.println(
+                    "Serving the build cache in " + dir + " on port " + server.getPort() +
+                    ", press Ctrl+C to stop ..."
+                );
+                Thread.currentThread().join();
+                break;
+            default:
+                throw new IllegalArgumentException(
+                    "Invalid action. Use 'stats', 'clear' or 'serve'."
+                );
+        }
+    }
+
+    /**
+     * Returns help information about the cache command.
+     *
+     * @return String containing usage instructions and command description
+     */
+    @Override
+    public String getHelpInfo() {
+        return (
+            "Manages the build cache shared by all projects (build.cache.path)\n" +
+            "  - stats: Shows hits, misses and the size of the cache\n" +
+            "  - clear: Deletes every cache entry\n" +
+            "  - serve: Serves a directory as a remote cache for build.cache.remote\n" +
+            "  - Usage: cache <stats|clear|serve <?port> <?dir>>\n"
+        );
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package JSBCommands;
+
+import Command.Command;
+import Command.IHandler;
+import Command.Manager;
+import JSBCommands.Util.Config;
+import JSBCommands.Util.Daemon;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handles starting, stopping and checking the JSB daemon of a project.
+ * While the daemon runs, build, package, dep, config and cache commands are handled by it.
+ */
+public class DaemonCommand implements IHandler {
+
+    /** Configuration manager instance */
+    Config config;
+    /** The manager the daemon dispatches commands through */
+    Manager manager;
+
+    /**
+     * Constructs a new DaemonCommand handler.
+     * @param config The configuration manager instance
+     * @param manager The manager holding every command handler
+     */
+    public DaemonCommand(Config config, Manager manager) {
+        this.config = config;
+        this.manager = manager;
+    }
+
+    /**
+     * Handles daemon commands.
+     * Supports four actions:
+     * - start: Starts the daemon in the background
+     * - stop: Stops the running daemon
+     * - status: Shows whether the daemon is running
+     * - run: Runs the daemon in the foreground
+     *
+     * @param command The command object containing the action
+     * @throws Exception If the daemon cannot be started
+     */
+    @Override
+    public void handleCommand(Command command) throws Exception {
+        if (!this.config.ready()) this.config.initConfig();
+
+        switch (command.get(0)) {
+            case "start":
+                this.start();
+                break;
+            case "stop":
+                if (!Daemon.send(config, List.of("daemon", "stop"))) {
+                    System.out.println("No daemon is running.");
+                }
+                break;
+            case "status":
+                System.out.println(
+                    Daemon.isRunning(config)
+                        ? "The daemon is running on " + Daemon.socket(config)
+                        : "No daemon is running."
+                );
+                break;
+            case "run":
+                if (Daemon.isRunning(config)) {
+                    System.out.println("A daemon is already running on " + Daemon.socket(config));
+                    return;
+                }
+                Daemon.serve(config, manager);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                    "Invalid action. Use 'start', 'stop', 'status' or 'run'."
+                );
+        }
+    }
+
+    /**
+     * Starts the daemon as a background JVM using the same Java and classpath as this one,
+     * logging to daemon.log in build.state, and waits until it accepts connections.
+     */
+    private void start() throws Exception {
+        if (Daemon.isRunning(config)) {
+            System.out.println("The daemon is already running.");
+            return;
+        }
+        File log = config.path("build.state").resolve("daemon.log").toFile();
+        Files.createDirectories(log.toPath().getParent());
+
+        ArrayList<String> daemonCommand = new ArrayList<>();
+        daemonCommand.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        daemonCommand.add("-cp");
+        daemonCommand.add(System.getProperty("java.class.path"));
+        daemonCommand.add("Main");
+        daemonCommand.add("daemon");
+        daemonCommand.add("run");
+
+        ProcessBuilder pb = new ProcessBuilder(daemonCommand);
+        pb.directory(config.getBaseDir());
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+        Process daemon = pb.start();
+        daemon.getOutputStream().close();
+
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!Daemon.isRunning(config)) {
+            if (!daemon.isAlive() || System.currentTimeMillis() > deadline) {
+                System.out.println("The daemon did not start, see " + log);
+                return;
+            }
+            Thread.sleep(50);
+        }
+        System.out.println("Daemon started with pid " + daemon.pid() + ", logging to " + log);
+    }
+
+    /**
+     * Returns help information about the daemon command.
+     *
+     * @return String containing usage instructions and command description
+     */
+    @Override
+    public String getHelpInfo() {
+        return (
+            "Keeps a warm JSB process running in the background for faster builds\n" +
+            "  - While it runs, build, package, dep, config and cache go through it\n" +
+            "  - Stops by itself after daemon.idle minutes without commands\n" +
+            "  - Usage: daemon <start|stop|status|run>\n"
+        );
+    }
+}
@@ -20,10 +20,16 @@ package JSBCommands;
 
 import Command.Command;
 import Command.IHandler;
+import JSBCommands.Util.ArtifactStore;
 import JSBCommands.Util.Config;
 import JSBCommands.Util.Dependency;
+import JSBCommands.Util.Downloader;
 import java.io.File;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Handles dependency management commands for adding, removing, and listing project dependencies.
@@ -48,16 +54,23 @@ public class DependencyCommand implements IHandler {
 
     /**
      * Handles dependency management commands.
-     * Supports three actions:
-     * - add: Adds one or more dependencies
-     * - remove: Removes a specific dependency
-     * - list: Shows all current dependencies
+     * Supports seven actions:
+     * - add: Adds one or more dependencies, checking them against the repository at once,
+     *   --scope declares them as runtime, provided or test instead of compile
+     * - remove: Removes a specific dependency, offline
+     * - list: Shows all current dependencies with their scopes
+     * - classpath: Prints the compile, runtime or test classpath, e.g. for a test runner,
+     *   as the only output on stdout
+     * - lock: Writes or checks jsb.lock, --update resolves again and rewrites it
+     * - prune: Deletes the jars in dep.path the dependencies no longer need
+     * - gc: Trims the artifact store shared by all projects to dep.store.size
      *
      * @param command The command object containing the action and dependencies
      * @throws IllegalArgumentException if the command arguments are invalid
+     * @throws Exception If resolving or downloading the dependencies for lock fails
      */
     @Override
-    public void handleCommand(Command command) {
+    public void handleCommand(Command command) throws Exception {
         if (!this.config.ready()) this.config.initConfig();
         String action = command.get(0);
         String dep = command.get(1);
@@ -73,6 +86,17 @@ public class DependencyCommand implements IHandler {
             case "add":
                 ArrayList<String> deps = command.getList();
                 deps.remove(0);
+                String scope = "compile";
+                int option = deps.indexOf("--scope");
+                if (option >= 0) {
+                    scope = option + 1 < deps.size() ? deps.remove(option + 1) : "";
+                    deps.remove(option);
+                    if (!Dependency.SCOPES.contains(scope)) {
+                        throw new IllegalArgumentException(
+                            "Unknown scope " + scope + ", use one of " + String.join(", ", Dependency.SCOPES) + "."
+                        );
+                    }
+                }
 
                 if (deps.isEmpty()) {
                     throw new IllegalArgumentException(
@@ -80,42 +104,95 @@ public class DependencyCommand implements IHandler {
                     );
                 }
 
-                for (String currDep : deps) {
-                    if (dependency.doesExist(currDep)) {
-                        dependency.add(currDep);
+                for (Map.Entry<String, Boolean> checked : dependency.doesExist(deps).entrySet()) {
+                    if (checked.getValue()) {
+                        dependency.add(checked.getKey(), scope);
                         System.out.println(
-                            "Dependency " + currDep + " added successfully."
+                            "Dependency " + checked.getKey() + " added successfully" +
+                            (scope.equals("compile") ? "." : " to " + Dependency.setting(scope) + ".")
                         );
                     } else {
                         System.out.println(
-                            "Dependency " + currDep + " does not exist."
+                            "Dependency " + checked.getKey() + " does not exist."
                         );
                     }
                 }
                 break;
             case "remove":
-                if (dependency.doesExist(dep)) {
-                    dependency.remove(dep);
+                if (dependency.remove(dep)) {
                     System.out.println(
                         "Dependency " + dep + " removed successfully."
                     );
                 } else {
                     System.out.println(
-                        "Dependency " + dep + " does not exist."
+                        "Dependency " + dep + " is not declared in any scope."
                     );
                 }
                 break;
             case "list":
-                ArrayList<File> depsList = dependency.listAll();
+                Map<File, String> depsList = dependency.listScopes();
                 if (depsList.isEmpty()) {
                     System.out.println("No dependencies found.");
                 } else {
                     System.out.println("Dependencies:");
-                    for (File depName : depsList) {
-                        System.out.println("  - " + depName.getName());
+                    for (Map.Entry<File, String> depName : depsList.entrySet()) {
+                        String scopeName = depName.getValue();
+                        System.out.println(
+                            "  - " + depName.getKey().getName() + (scopeName.equals("compile") ? "" : " (" + scopeName + ")")
+                        );
                     }
                 }
                 break;
+            case "classpath":
+                Dependency.Classpath classpath;
+                try {
+                    classpath = Dependency.Classpath.valueOf((dep.isBlank() ? "runtime" : dep).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(
+                        "Unknown classpath " + dep + ", use compile, runtime or test."
+                    );
+                }
+                // Only the classpath goes to stdout, so CP=$(jsb dep classpath) works,
+                // resolving and downloading report to stderr
+                PrintStream out = System.out;
+                List<String> jars = new ArrayList<>();
+                System.setOut(System.err);
+                try {
+                    dependency.loadDeps();
+                    for (File jar : dependency.list(classpath)) jars.add(jar.toString());
+                } finally {
+                    System.setOut(out);
+                }
+                System.out.println(String.join(config.get("system.sep"), jars));
+                break;
+            case "lock":
+                if (!dep.isBlank() && !dep.equals("--update")) {
+                    throw new IllegalArgumentException(
+                        "Unknown option " + dep + " for lock. Please check the help information."
+                    );
+                }
+                dependency.lock(dep.equals("--update"));
+                break;
+            case "prune":
+                Map<File, Long> pruned = dependency.prune();
+                long freed = 0;
+                for (Map.Entry<File, Long> jar : pruned.entrySet()) {
+                    System.out.println("  - " + jar.getKey().getName());
+                    freed += jar.getValue();
+                }
+                System.out.println(
+                    "Pruned " + pruned.size() + " jar(s) from " + config.get("dep.path") + ", freed " + Downloader.size(freed) + "."
+                );
+                break;
+            case "gc":
+                ArtifactStore store = dependency.store();
+                long[] collected = store.gc();
+                long[] left = store.size();
+                System.out.println(
+                    "Removed " + collected[0] + " artifact(s) from " + store.getDir() + ", freed " +
+                    Downloader.size(collected[1]) + ". " + left[0] + " jar(s) left, " + Downloader.size(left[1]) + "."
+                );
+                break;
             default:
                 throw new IllegalArgumentException(
                     "Invalid action. Please check the help information."
@@ -135,9 +212,13 @@ public class DependencyCommand implements IHandler {
             "Used to manage dependencies\n" +
             "  - Usage: dep <action> <?dependency>\n" +
             "  - Actions:\n" +
-            "    - add <dependency> : Add a new dependency.\n" +
+            "    - add <?--scope compile|runtime|provided|test> <dependency> : Add a new dependency.\n" +
             "    - remove <dependency> : Remove an existing dependency.\n" +
-            "    - list : List all dependencies.\n"
+            "    - list : List all dependencies.\n" +
+            "    - classpath <?compile|runtime|test> : Print the jars on a classpath, runtime by default.\n" +
+            "    - lock <?--update> : Write jsb.lock, or check the jars against it. --update resolves again.\n" +
+            "    - prune : Delete the jars in dep.path no dependency needs anymore.\n" +
+            "    - gc : Remove the least recently used jars from the artifact store (dep.store).\n"
         );
     }
 }
@@ -22,12 +22,26 @@ import Command.Command;
 import Command.IHandler;
 import JSBCommands.Util.Config;
 import JSBCommands.Util.Dependency;
+import JSBCommands.Util.FileIndex;
+import JSBCommands.Util.Modules;
+import JSBCommands.Util.ReleaseSets;
 import JSBCommands.Util.Runner;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.nio.file.*;
@@ -63,6 +77,9 @@ public class PackageCommand implements IHandler {
      * 1. Initializes configuration if not ready
      * 2. Extracts dependencies from JAR files
      * 3. Creates the final executable JAR
+     * With package.mode set to memory, the project is instead compiled in memory and
+     * written straight into the jar, see {@link #packageInMemory()}.
+     * Prints the wall time and peak heap usage, to compare both modes.
      *
      * @param command The command to handle
      * @throws Exception If packaging process fails
@@ -70,6 +87,35 @@ public class PackageCommand implements IHandler {
     @Override
     public void handleCommand(Command command) throws Exception {
         if (!this.config.ready()) this.config.initConfig();
+
+        long start = System.nanoTime();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        if (config.get("package.mode").equals("memory")) this.packageInMemory();
+        else this.packageOnDisk();
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(
+            String.format(
+                "Packaged in %d ms with package.mode=%s, peak heap %d MB",
+                (System.nanoTime() - start) / 1_000_000,
+                config.get("package.mode"),
+                peak / (1024 * 1024)
+            )
+        );
+    }
+
+    /**
+     * Builds into build.builds, copies resources and extracted dependencies next to the
+     * classes, runs package.cmd over them and cleans build.builds afterwards.
+     *
+     * @throws Exception If packaging process fails
+     */
+    private void packageOnDisk() throws Exception {
         new BuildCommand(config, dependency).handleCommand(new Command(""));
 
         System.out.println("Packaging project ...");
@@ -88,12 +134,27 @@ public class PackageCommand implements IHandler {
         );
         jarCommand.add("-e");
         jarCommand.add(config.get("java.class"));
-        jarCommand.add("-C");
-        jarCommand.add(config.get("build.builds") + "/");
-        jarCommand.add(".");
+        List<Config> projects = this.projects();
+        for (Config project : projects) {
+            jarCommand.add("-C");
+            jarCommand.add(project.path("build.builds") + "/");
+            jarCommand.add(".");
+        }
         jarCommand.add("-C");
         jarCommand.add(config.get("dep.path") + "/classes/");
         jarCommand.add(".");
+        // The jar tool puts these in META-INF/versions and marks the jar Multi-Release
+        for (Config project : projects) {
+            for (int release : ReleaseSets.load(project).keySet()) {
+                Path output = ReleaseSets.output(project, release);
+                if (!Files.isDirectory(output)) continue;
+                jarCommand.add("--release");
+                jarCommand.add(String.valueOf(release));
+                jarCommand.add("-C");
+                jarCommand.add(output + "/");
+                jarCommand.add(".");
+            }
+        }
 
 
         shellCommand.add(String.join(" ", jarCommand));
@@ -102,24 +163,24 @@ public class PackageCommand implements IHandler {
         if (!depClassesPath.exists()) {
             depClassesPath.mkdirs(); // Ensure the target classes directory exists
         }
+        // Left from the last run, possibly of jars that are no longer packaged
+        this.deleteDirectoryContents(depClassesPath.toPath());
 
-        Path resDir = Paths.get("./res");
-        Path classesDir = Paths.get(config.get("build.builds"));
-
-        Files.walk(resDir)
-            .filter(Files::isRegularFile)
-            .forEach(src -> {
-                try {
-                    Path dest = classesDir.resolve(resDir.relativize(src));
-                    Files.createDirectories(dest.getParent());
-                    Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-
+        for (Config project : projects) {
+            Path resDir = project.path("resource.path");
+            Path classesDir = project.path("build.builds");
+            if (!Files.exists(resDir)) continue;
 
-        for (File file : dependency.listAll()) {
+            FileIndex resources = FileIndex.of(project, "resource.path", "");
+            resources.refresh();
+            for (Path src : resources.files()) {
+                Path dest = classesDir.resolve(resDir.relativize(src));
+                Files.createDirectories(dest.getParent());
+                Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+            }
+            resources.save();
+        }
+        for (File file : this.dependencyJars(projects)) {
             if (file.getName().endsWith(".jar")) { // Check if the file is a .jar
                 try (
                     ZipInputStream zis = new ZipInputStream(
@@ -171,8 +232,122 @@ public class PackageCommand implements IHandler {
         if (exitedGood) System.out.println("Packing exited successfully!");
         else System.out.println("Packing probably failed : (");
 
-        System.out.println("Cleaning up " + config.get("build.builds") + " ...");
-        this.deleteDirectoryContents(classesDir);
+        for (Config project : projects) {
+            System.out.println("Cleaning up " + project.path("build.builds") + " ...");
+            this.deleteDirectoryContents(project.path("build.builds"));
+        }
+    }
+
+    /**
+     * Compiles the project in memory and streams the classes, resources and the contents
+     * of the dependency jars straight into the jar, so nothing but the jar is written.
+     * The first entry of a name wins, so project classes and resources take precedence
+     * over dependencies.
+     *
+     * @throws Exception If compiling or writing the jar fails
+     */
+    private void packageInMemory() throws Exception {
+        Map<String, byte[]> classes = new BuildCommand(config, dependency).buildInMemory();
+        if (classes == null) {
+            System.out.println("Building probably failed : (");
+            return;
+        }
+
+        System.out.println("Packaging project in memory ...");
+        Path jar = config.path("package.path").resolve(config.get("package.name") + ".jar");
+        Files.createDirectories(jar.getParent());
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, config.get("java.class"));
+        manifest.getMainAttributes().put(new Attributes.Name("Created-By"), "JSB");
+        if (classes.keySet().stream().anyMatch(name -> name.startsWith("META-INF/versions/"))) {
+            manifest.getMainAttributes().put(Attributes.Name.MULTI_RELEASE, "true");
+        }
+
+        List<Config> projects = this.projects();
+        Set<String> written = new HashSet<>();
+        written.add("META-INF/");
+        written.add("META-INF/MANIFEST.MF");
+        // Written next to the jar and moved over it, so a failed run keeps the old jar
+        Path temp = Files.createTempFile(jar.getParent(), config.get("package.name"), ".tmp");
+        try {
+            try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)), manifest)) {
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    if (this.putEntry(out, written, entry.getKey())) out.write(entry.getValue());
+                }
+
+                for (Config project : projects) {
+                    FileIndex resources = FileIndex.of(project, "resource.path", "");
+                    resources.refresh();
+                    for (Path resource : resources.files()) {
+                        String name = resources.getRoot().relativize(resource).toString().replace(File.separatorChar, '/');
+                        if (this.putEntry(out, written, name)) Files.copy(resource, out);
+                    }
+                }
+
+                for (File dependencyJar : this.dependencyJars(projects)) {
+                    try (ZipInputStream zis = new ZipInputStream(new FileInputStream(dependencyJar))) {
+                        ZipEntry entry;
+                        while ((entry = zis.getNextEntry()) != null) {
+                            if (entry.isDirectory() || entry.getName().startsWith("META-INF/")) continue;
+                            if (this.putEntry(out, written, entry.getName())) zis.transferTo(out);
+                        }
+                    }
+                }
+            }
+            Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        System.out.println("Packing exited successfully! Wrote " + written.size() + " entries to " + jar);
+    }
+
+    /**
+     * Starts a jar entry, after the entries of its parent directories.
+     *
+     * @return false if an entry with that name was already written
+     */
+    private boolean putEntry(JarOutputStream out, Set<String> written, String name) throws IOException {
+        if (written.contains(name)) return false;
+        int slash = name.indexOf('/');
+        while (slash >= 0 && slash < name.length() - 1) {
+            String directory = name.substring(0, slash + 1);
+            if (written.add(directory)) {
+                out.putNextEntry(new JarEntry(directory));
+                out.closeEntry();
+            }
+            slash = name.indexOf('/', slash + 1);
+        }
+        written.add(name);
+        out.putNextEntry(new JarEntry(name));
+        return true;
+    }
+
+    /**
+     * @return The compile and runtime dependency jars of every project, without duplicates.
+     *         Provided and test jars are left out of the package.
+     */
+    private List<File> dependencyJars(List<Config> projects) {
+        ArrayList<File> jars = new ArrayList<>();
+        for (Config project : projects) {
+            Dependency projectDeps = project == config ? dependency : new Dependency(project);
+            for (File jar : projectDeps.list(Dependency.Classpath.RUNTIME)) {
+                if (!jars.contains(jar)) jars.add(jar);
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * Returns the projects packaged into the jar: every module of a multi-module
+     * project in build order, or just this project.
+     *
+     * @return The project configurations
+     */
+    private List<Config> projects() {
+        if (!Modules.enabled(config)) return List.of(config);
+        return new ArrayList<>(Modules.load(config).values());
     }
 
     private void deleteDirectoryContents(Path dir) throws IOException {
@@ -199,6 +374,7 @@ public class PackageCommand implements IHandler {
             "Packages Java source files into a runnable JAR file\n" +
             "  - Builds all source files" +
             "  - Creates a JAR file in the ./dist directory\n" +
+            "  - Compiles straight into the JAR without touching disk if package.mode is memory\n" +
             "  - Usage: package\n"
         );
     }
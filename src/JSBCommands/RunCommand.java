@@ -22,9 +22,14 @@ import Command.Command;
 import Command.IHandler;
 import JSBCommands.Util.Config;
 import JSBCommands.Util.Dependency;
+import JSBCommands.Util.Modules;
+import JSBCommands.Util.ReleaseSets;
 import JSBCommands.Util.Runner;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Handles the execution of Java programs by managing build and run operations.
@@ -59,10 +64,67 @@ public class RunCommand implements IHandler {
     @Override
     public void handleCommand(Command command) throws Exception {
         if (!this.config.ready()) this.config.initConfig();
+
+        if (command.get(0).equals("--watch")) {
+            command.trim();
+            this.watch(command);
+            return;
+        }
+
         new BuildCommand(config, dependency).handleCommand(new Command(""));
 
         System.out.println("Running project ...");
+        ArrayList<String> shellCommand = this.shellCommand(command);
+        System.out.println("Running the command: " + shellCommand);
+        boolean exitedGood = Runner.runCommand(shellCommand);
+        if (exitedGood) System.out.println("Running exited successfully!");
+        else System.out.println("Running probably failed : (");
+    }
+
+    /**
+     * Runs the program, and rebuilds and restarts it whenever a source or resource
+     * changes. A build that fails leaves the previous run alone.
+     *
+     * @param command The command object containing runtime arguments for the Java program
+     * @throws Exception If the project cannot be watched
+     */
+    private void watch(Command command) throws Exception {
+        Process[] running = new Process[1];
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Runner.stopCommand(running[0]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        new BuildCommand(config, dependency).watch(exitedGood -> {
+            if (!exitedGood) {
+                System.out.println("Not restarting, fix the build first.");
+                return;
+            }
+            try {
+                Runner.stopCommand(running[0]);
+                // Made again each time, the dependencies may have changed with the build
+                ArrayList<String> shellCommand = this.shellCommand(command);
+                System.out.println("Running the command: " + shellCommand);
+                running[0] = Runner.startCommand(shellCommand);
+            } catch (IOException | InterruptedException e) {
+                System.out.println("Could not restart the program, " + e.getMessage());
+            }
+        });
+    }
 
+    /**
+     * Builds the shell command that launches the program. The exact classpath, in
+     * order, goes into the argument file run.args in build.state, so it is not
+     * limited by the length of the command line.
+     *
+     * @param command The command object containing runtime arguments for the Java program
+     * @return The shell and java command with classpath, main class and arguments
+     * @throws IOException If the argument file cannot be written
+     */
+    private ArrayList<String> shellCommand(Command command) throws IOException {
         ArrayList<String> shellCommand = new ArrayList<>();
 
         shellCommand.add(config.get("system.shell")); // sh or cmd
@@ -72,25 +134,44 @@ public class RunCommand implements IHandler {
         String sep = config.get("system.sep"); 
 
         runCommand.add(config.get("java.path")); // java
-        runCommand.add("-cp"); // set classpath
-        runCommand.add(String.format(
-            "%s/*%s%s%s%s",
-            config.get("dep.path"),      // ./lib
-            sep,
-            config.get("build.builds"),  // ./classes
-            sep,
-            config.get("resource.path")       // ./res
-        ));
+        ArrayList<String> classpath = new ArrayList<>();
+        for (Config project : this.projects()) {
+            // Classes of the release source sets for this Java release replace the base ones
+            for (Path output : ReleaseSets.forRelease(project, Runtime.version().feature())) {
+                classpath.add(output.toString());
+            }
+            // Compile and runtime jars only, provided and test ones are not for running
+            Dependency projectDeps = project == config ? dependency : new Dependency(project);
+            for (File jar : projectDeps.list(Dependency.Classpath.RUNTIME)) {
+                if (!classpath.contains(jar.toString())) classpath.add(jar.toString());
+            }
+            classpath.add(String.format(
+                "%s%s%s",
+                project.path("build.builds"),  // ./classes
+                sep,
+                project.path("resource.path")       // ./res
+            ));
+        }
+        Path argFile = config.path("build.state").resolve("run.args");
+        runCommand.add(Runner.argFile(argFile, List.of("-cp", String.join(sep, classpath)))); // set classpath
         
         runCommand.add(config.get("java.class"));
 
         if (!command.raw().isBlank()) runCommand.addAll(command.getList());
 
         shellCommand.add(String.join(" ", runCommand));
-        System.out.println("Running the command: " + shellCommand);
-        boolean exitedGood = Runner.runCommand(shellCommand);
-        if (exitedGood) System.out.println("Running exited successfully!");
-        else System.out.println("Running probably failed : (");
+        return shellCommand;
+    }
+
+    /**
+     * Returns the projects whose output goes on the classpath: every module of a
+     * multi-module project in build order, or just this project.
+     *
+     * @return The project configurations
+     */
+    private List<Config> projects() {
+        if (!Modules.enabled(config)) return List.of(config);
+        return new ArrayList<>(Modules.load(config).values());
     }
 
     /**
@@ -103,7 +184,8 @@ public class RunCommand implements IHandler {
         return (
             "Builds and runs your Java program\n" +
             "  - Compiles source code before executing\n" +
-            "  - Usage: run\n"
+            "  - Rebuilds and restarts on every change with --watch\n" +
+            "  - Usage: run <?--watch> <?arguments>\n"
         );
     }
 }
@@ -0,0 +1,360 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A store of dependency jars shared by every project of the user, so each jar is
+ * downloaded and stored once. Jars are stored by their SHA-256 hash in blobs, and an
+ * index maps Maven coordinates to hashes. Projects get the jars through hard links into
+ * dep.path, or symbolic links or copies where hard links are not possible.
+ * Changes are made under a file lock, since several JSB processes may share the store.
+ * The index entries record when an artifact was last used, for {@link #gc()}.
+ */
+public class ArtifactStore {
+
+    /**
+     * How a jar was put into a project.
+     */
+    public enum Link {
+        HARD("hard links"),
+        SYMBOLIC("symbolic links"),
+        COPY("copies");
+
+        /** How the link is called in messages */
+        private String description;
+
+        Link(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /** The store directory */
+    private Path dir;
+    /** The size the store is trimmed to by {@link #gc()}, in bytes */
+    private long maxBytes;
+
+    /**
+     * @param dir The store directory
+     * @param maxBytes The size the store is trimmed to by {@link #gc()}, in bytes
+     */
+    public ArtifactStore(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Finds the jar of an artifact, and marks the artifact as used.
+     *
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @param sha256 The hash the jar must have, null to accept any
+     * @return The jar in the store, or null if it is not stored (with that hash)
+     * @throws IOException If the index cannot be read
+     */
+    public Path find(String coordinates, String sha256) throws IOException {
+        Path index = this.index(coordinates);
+        if (!Files.isRegularFile(index)) return null;
+        String hash = Files.readString(index, StandardCharsets.UTF_8).trim();
+        Path blob = this.blob(hash);
+        if ((sha256 != null && !sha256.equals(hash)) || !Files.isRegularFile(blob)) return null;
+        Files.setLastModifiedTime(index, FileTime.fromMillis(System.currentTimeMillis()));
+        return blob;
+    }
+
+    /**
+     * Returns where to download the jar of an artifact to, inside the store so it can be
+     * moved into it. The path is always the same for an artifact, so a cut off download
+     * left next to it as .part is resumed by the next attempt, in this or another process.
+     *
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @return The path to download to, the file is not created
+     * @throws IOException If the directory cannot be created
+     */
+    public Path incoming(String coordinates) throws IOException {
+        String[] parts = coordinates.split(":");
+        Path incoming = dir.resolve("incoming").resolve(parts[0]);
+        Files.createDirectories(incoming);
+        return incoming.resolve(parts[1] + "-" + parts[2] + ".jar");
+    }
+
+    /**
+     * Moves a downloaded jar into the store. If a jar with the same content is already
+     * stored, the file is deleted instead. If the file is gone, another process that
+     * downloaded the same artifact stored it first, and its jar is returned.
+     *
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @param file The downloaded jar, ideally from {@link #incoming(String)} so it can be moved
+     * @return The jar in the store
+     * @throws IOException If the jar cannot be stored
+     */
+    public Path put(String coordinates, Path file) throws IOException {
+        Path index = this.index(coordinates);
+        Path[] stored = new Path[1];
+        this.locked(() -> {
+            if (!Files.exists(file)) {
+                stored[0] = this.find(coordinates, null);
+                if (stored[0] == null) throw new NoSuchFileException(file.toString());
+                return;
+            }
+            String hash = hash(file);
+            Path blob = this.blob(hash);
+            stored[0] = blob;
+            if (Files.isRegularFile(blob)) {
+                Files.delete(file);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(file, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            this.writeIndex(index, hash);
+        });
+        return stored[0];
+    }
+
+    /**
+     * Adds a jar that must stay where it is, e.g. in the local Maven repository, to the
+     * store. The jar is hard linked into the store where possible, else copied.
+     *
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @param file The jar
+     * @param sha256 The hash the jar must have, null to accept any
+     * @return The jar in the store, or null if the jar has another hash
+     * @throws IOException If the jar cannot be stored
+     */
+    public Path add(String coordinates, Path file, String sha256) throws IOException {
+        Path index = this.index(coordinates);
+        Path[] stored = new Path[1];
+        this.locked(() -> {
+            String hash = hash(file);
+            if (sha256 != null && !sha256.equals(hash)) return;
+            Path blob = this.blob(hash);
+            stored[0] = blob;
+            if (!Files.isRegularFile(blob)) {
+                Files.createDirectories(blob.getParent());
+                try {
+                    Files.createLink(blob, file);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // Another file system, copy it in whole before it becomes visible
+                    Path temp = Files.createTempFile(blob.getParent(), hash, ".tmp");
+                    try {
+                        Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+                        Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                }
+            }
+            this.writeIndex(index, hash);
+        });
+        return stored[0];
+    }
+
+    /**
+     * Puts a stored jar into a project directory, replacing what is there.
+     * A hard link is tried first, then a symbolic link, then a copy.
+     *
+     * @param blob The jar in the store
+     * @param target Where the project expects the jar
+     * @return How the jar was put there
+     * @throws IOException If the jar cannot be put there at all
+     */
+    public static Link link(Path blob, Path target) throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, blob);
+            return Link.HARD;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Another file system, or not allowed, e.g. on some Windows setups
+        }
+        try {
+            Files.createSymbolicLink(target, blob.toAbsolutePath());
+            return Link.SYMBOLIC;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Symbolic links need extra rights on Windows
+        }
+        Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+        return Link.COPY;
+    }
+
+    /**
+     * Deletes the jars no artifact refers to anymore, then removes the least recently
+     * used artifacts until the store fits its size limit. Projects linking a removed
+     * jar with a hard link or copy keep it, others download it again on the next build.
+     *
+     * @return The number of artifacts removed and the bytes freed
+     * @throws IOException If the store cannot be read or changed
+     */
+    public long[] gc() throws IOException {
+        long[] result = new long[2];
+        this.locked(() -> {
+            List<Path> indexes = this.files(dir.resolve("index"));
+            indexes.sort(Comparator.comparingLong(index -> index.toFile().lastModified()));
+            Map<Path, String> hashes = new HashMap<>();
+            Map<String, Integer> references = new HashMap<>();
+            for (Path index : indexes) {
+                String hash = Files.readString(index, StandardCharsets.UTF_8).trim();
+                hashes.put(index, hash);
+                references.merge(hash, 1, Integer::sum);
+            }
+
+            long total = 0;
+            for (Path blob : this.files(dir.resolve("blobs"))) {
+                String hash = blob.getFileName().toString().replace(".jar", "");
+                long size = Files.size(blob);
+                if (references.containsKey(hash)) {
+                    total += size;
+                } else {
+                    Files.delete(blob);
+                    result[1] += size;
+                }
+            }
+
+            // Least recently used first, a jar goes once no artifact refers to it
+            for (Path index : indexes) {
+                if (total <= maxBytes) break;
+                Files.delete(index);
+                result[0]++;
+                String hash = hashes.get(index);
+                if (references.merge(hash, -1, Integer::sum) == 0 && Files.exists(this.blob(hash))) {
+                    long size = Files.size(this.blob(hash));
+                    Files.delete(this.blob(hash));
+                    total -= size;
+                    result[1] += size;
+                }
+            }
+
+            // Left behind by JSB processes that were killed while downloading
+            long dayAgo = System.currentTimeMillis() - 24 * 60 * 60 * 1000;
+            for (Path file : this.files(dir.resolve("incoming"))) {
+                if (file.toFile().lastModified() < dayAgo) Files.deleteIfExists(file);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return The number of stored jars and their total size in bytes
+     * @throws IOException If the store cannot be read
+     */
+    public long[] size() throws IOException {
+        long total = 0;
+        List<Path> blobs = this.files(dir.resolve("blobs"));
+        for (Path blob : blobs) total += Files.size(blob);
+        return new long[] { blobs.size(), total };
+    }
+
+    /**
+     * @return The store directory
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+    private Path blob(String hash) {
+        return dir.resolve("blobs").resolve(hash.substring(0, 2)).resolve(hash + ".jar");
+    }
+
+    private void writeIndex(Path index, String hash) throws IOException {
+        Files.createDirectories(index.getParent());
+        Path temp = Files.createTempFile(index.getParent(), index.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, hash + "\n", StandardCharsets.UTF_8);
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path index(String coordinates) {
+        String[] parts = coordinates.split(":");
+        return dir.resolve("index").resolve(parts[0]).resolve(parts[1] + "-" + parts[2] + ".sha256");
+    }
+
+    /**
+     * Runs an action while holding the store lock. The file lock keeps other JSB
+     * processes out, the monitor other threads of this one, e.g. modules built in parallel.
+     */
+    private void locked(Action action) throws IOException {
+        Files.createDirectories(dir);
+        synchronized (ArtifactStore.class) {
+            try (
+                FileChannel channel = FileChannel.open(
+                    dir.resolve("store.lock"),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE
+                )
+            ) {
+                FileLock lock = channel.lock();
+                try {
+                    action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /** A change to the store, made while holding the store lock */
+    private interface Action {
+        void run() throws IOException;
+    }
+
+    private List<Path> files(Path root) throws IOException {
+        if (!Files.isDirectory(root)) return new ArrayList<>();
+        try (Stream<Path> tree = Files.walk(root)) {
+            return tree
+                .filter(path -> Files.isRegularFile(path) && !path.toString().endsWith(".tmp"))
+                .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = BuildState.digest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+        }
+        return BuildState.hex(digest.digest());
+    }
+}
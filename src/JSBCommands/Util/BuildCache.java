@@ -0,0 +1,555 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A local, content addressed cache of compiled output, shared by every project of the user.
+ * Each entry is a zip of a whole class tree plus the build state that goes with it,
+ * stored under the hash of everything that went into the compilation.
+ * The least recently used entries are evicted once the cache grows over its size limit.
+ * Optionally, entries are also fetched from and pushed to a remote cache over HTTP,
+ * which only has to answer GET and PUT on {@code <url>/<key>.zip}.
+ */
+public class BuildCache {
+
+    /** Zip entry holding the build state */
+    private static final String STATE_ENTRY = "build-state";
+    /** Prefix of the zip entries holding class files */
+    private static final String CLASSES_PREFIX = "classes/";
+    /** Prefix of the zip entries holding sources generated by annotation processors */
+    private static final String GENERATED_PREFIX = "generated/";
+
+    /** Directory holding the cache entries */
+    private Path dir;
+    /** Maximum total size of all entries in bytes */
+    private long maxBytes;
+    /** Base URL of the remote cache, or null to only use the local directory */
+    private String remote;
+    /** Time limit of a whole remote transfer */
+    private Duration timeout;
+    /** Whether entries built locally are uploaded to the remote cache */
+    private boolean push;
+    /** Counters of the current JSB run, or null if nobody reports them */
+    private Stats session;
+
+    /**
+     * Creates a cache in the given directory.
+     *
+     * @param dir The cache directory, created when needed
+     * @param maxBytes The size limit of the cache in bytes
+     */
+    public BuildCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Also looks up entries in a remote cache, and uploads new entries to it.
+     *
+     * @param url Base URL of the remote cache, e.g. http://cache:5071/
+     * @param timeoutMillis Time limit of a whole download or upload
+     * @param push Whether entries built locally are uploaded
+     */
+    public void setRemote(String url, long timeoutMillis, boolean push) {
+        this.remote = url.endsWith("/") ? url : url + "/";
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.push = push;
+    }
+
+    /**
+     * Counts hits, misses and transferred bytes in the given statistics as well,
+     * so they can be reported at the end of the build.
+     *
+     * @param session The counters of the current JSB run
+     */
+    public void setSession(Stats session) {
+        this.session = session;
+    }
+
+    /**
+     * Replaces the class tree and build state with a cached entry, if there is one.
+     * Entries missing locally are downloaded from the remote cache, if one is set.
+     * Class files in the build directory that are not part of the entry are deleted,
+     * and so are the generated sources. An entry that is not a complete zip with a
+     * build state is deleted and counts as a miss, before anything is touched.
+     *
+     * @param key The hash of the inputs of the compilation
+     * @param classesDir The build directory to restore the classes into
+     * @param stateFile The build state file to restore
+     * @param generatedDir The directory to restore generated sources into, or null if there are none
+     * @return true if the entry was found and restored
+     * @throws IOException If the entry cannot be read or the files cannot be written,
+     *         in which case the entry is deleted from the cache
+     */
+    public boolean restore(String key, Path classesDir, Path stateFile, Path generatedDir) throws IOException {
+        Path entry = this.entry(key);
+        if (!Files.exists(entry) && remote != null) this.fetch(key, entry);
+        if (!Files.exists(entry)) {
+            this.count("misses", 0);
+            return false;
+        }
+        if (!isValid(entry)) {
+            System.out.println("Deleted the broken build cache entry " + key);
+            Files.deleteIfExists(entry);
+            this.count("misses", 0);
+            return false;
+        }
+
+        if (Files.isDirectory(classesDir)) {
+            try (Stream<Path> tree = Files.walk(classesDir)) {
+                for (Path classFile : tree.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList())) {
+                    Files.delete(classFile);
+                }
+            }
+        }
+        if (generatedDir != null && Files.isDirectory(generatedDir)) {
+            for (Path file : this.files(generatedDir)) {
+                Files.delete(file);
+            }
+        }
+        try {
+            this.extract(key, entry, classesDir, stateFile, generatedDir);
+        } catch (IOException e) {
+            // A truncated or otherwise broken entry would fail every build with the same inputs
+            Files.deleteIfExists(entry);
+            this.count("misses", 0);
+            throw e;
+        }
+        // Restoring counts as a use for the least recently used eviction
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        this.count("hits", Files.size(entry));
+        return true;
+    }
+
+    private void extract(String key, Path entry, Path classesDir, Path stateFile, Path generatedDir) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zip.getNextEntry()) != null) {
+                Path target;
+                if (zipEntry.getName().equals(STATE_ENTRY)) {
+                    target = stateFile;
+                } else if (zipEntry.getName().startsWith(CLASSES_PREFIX)) {
+                    target = classesDir.resolve(zipEntry.getName().substring(CLASSES_PREFIX.length())).normalize();
+                    if (!target.startsWith(classesDir.normalize())) {
+                        throw new IOException("Cache entry " + key + " escapes the build directory");
+                    }
+                } else if (zipEntry.getName().startsWith(GENERATED_PREFIX) && generatedDir != null) {
+                    target = generatedDir.resolve(zipEntry.getName().substring(GENERATED_PREFIX.length())).normalize();
+                    if (!target.startsWith(generatedDir.normalize())) {
+                        throw new IOException("Cache entry " + key + " escapes the generated sources directory");
+                    }
+                } else {
+                    continue;
+                }
+                if (target.getParent() != null) Files.createDirectories(target.getParent());
+                Files.copy(zip, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Stores the class tree, generated sources and build state under the given key,
+     * then evicts the least recently used entries if the cache is over its size limit.
+     * Besides class files, the class tree holds the resources annotation processors wrote.
+     *
+     * @param key The hash of the inputs of the compilation
+     * @param classesDir The build directory holding the compiled classes
+     * @param stateFile The build state file matching the classes
+     * @param generatedDir The directory holding generated sources, or null if there are none
+     * @throws IOException If the entry cannot be written
+     */
+    public void store(String key, Path classesDir, Path stateFile, Path generatedDir) throws IOException {
+        Files.createDirectories(dir);
+        Path entry = this.entry(key);
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            List<Path> classes = this.files(classesDir);
+
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                zip.putNextEntry(new ZipEntry(STATE_ENTRY));
+                Files.copy(stateFile, zip);
+                zip.closeEntry();
+                for (Path classFile : classes) {
+                    String name = classesDir.relativize(classFile).toString().replace(File.separatorChar, '/');
+                    zip.putNextEntry(new ZipEntry(CLASSES_PREFIX + name));
+                    Files.copy(classFile, zip);
+                    zip.closeEntry();
+                }
+                if (generatedDir != null && Files.isDirectory(generatedDir)) {
+                    for (Path file : this.files(generatedDir)) {
+                        String name = generatedDir.relativize(file).toString().replace(File.separatorChar, '/');
+                        zip.putNextEntry(new ZipEntry(GENERATED_PREFIX + name));
+                        Files.copy(file, zip);
+                        zip.closeEntry();
+                    }
+                }
+            }
+            // Other JSB processes only ever see complete entries
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        this.count("stored", Files.size(entry));
+        if (remote != null && push) this.upload(key, entry);
+        this.evict();
+    }
+
+    /**
+     * @return The regular files in a directory tree, sorted
+     */
+    private List<Path> files(Path root) throws IOException {
+        try (Stream<Path> tree = Files.walk(root)) {
+            return tree.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Checks if an entry exists for the given key, without restoring it.
+     *
+     * @param key The hash of the inputs of the compilation
+     * @return true if the entry exists
+     */
+    public boolean contains(String key) {
+        return Files.exists(this.entry(key));
+    }
+
+    /**
+     * Returns the path of the zip for an entry.
+     *
+     * @param key The hash of the inputs of the compilation
+     * @return The path of the entry in the cache directory
+     */
+    public Path entry(String key) {
+        return dir.resolve(key + ".zip");
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its size limit.
+     *
+     * @throws IOException If the cache directory cannot be listed
+     */
+    public void evict() throws IOException {
+        List<Path> entries = this.entries();
+        long total = 0;
+        for (Path entry : entries) total += Files.size(entry);
+
+        entries.sort(Comparator.comparingLong(entry -> entry.toFile().lastModified()));
+        for (Path entry : entries) {
+            if (total <= maxBytes) break;
+            total -= Files.size(entry);
+            Files.deleteIfExists(entry);
+            this.count("evicted", 0);
+        }
+    }
+
+    /**
+     * Deletes every entry and resets the statistics.
+     *
+     * @throws IOException If an entry cannot be deleted
+     */
+    public void clear() throws IOException {
+        for (Path entry : this.entries()) {
+            Files.deleteIfExists(entry);
+        }
+        Files.deleteIfExists(dir.resolve("stats.properties"));
+    }
+
+    /**
+     * Returns the hit and miss statistics of the cache, along with its current size.
+     *
+     * @return The statistics, such as hits, misses, stored and evicted
+     * @throws IOException If the statistics cannot be read
+     */
+    public Properties stats() throws IOException {
+        Properties stats = new Properties();
+        Path file = dir.resolve("stats.properties");
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                stats.load(in);
+            }
+        }
+        List<Path> entries = this.entries();
+        long size = 0;
+        for (Path entry : entries) size += Files.size(entry);
+        stats.setProperty("entries", String.valueOf(entries.size()));
+        stats.setProperty("size.bytes", String.valueOf(size));
+        return stats;
+    }
+
+    /**
+     * Formats the hit rate for printing at the end of a build.
+     *
+     * @return A summary such as "3 hit(s), 1 miss(es), 75% hit rate"
+     * @throws IOException If the statistics cannot be read
+     */
+    public String summary() throws IOException {
+        Properties stats = this.stats();
+        long hits = Long.parseLong(stats.getProperty("hits", "0"));
+        long misses = Long.parseLong(stats.getProperty("misses", "0"));
+        long rate = hits + misses == 0 ? 0 : hits * 100 / (hits + misses);
+        return String.format("%d hit(s), %d miss(es), %d%% hit rate", hits, misses, rate);
+    }
+
+    /**
+     * Downloads an entry from the remote cache into the local directory. The download
+     * is streamed to a temporary file and bounded by the timeout. A missing entry or
+     * any error only means the sources are compiled locally.
+     */
+    private void fetch(String key, Path entry) throws IOException {
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(remote + key + ".zip"))
+                .timeout(timeout)
+                .GET()
+                .build();
+            HttpResponse<Path> response = this.send(request, HttpResponse.BodyHandlers.ofFile(temp));
+            if (response.statusCode() == 200 && !isValid(temp)) {
+                // E.g. an error page from a proxy, or a cut off upload
+                System.out.println("Remote build cache sent a broken entry for " + key + ", ignoring it");
+                this.count("remote.errors", 0);
+            } else if (response.statusCode() == 200) {
+                long size = Files.size(temp);
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                this.count("remote.hits", size);
+            } else if (response.statusCode() == 404) {
+                this.count("remote.misses", 0);
+            } else {
+                System.out.println("Remote build cache answered " + response.statusCode() + " for " + key);
+                this.count("remote.errors", 0);
+            }
+        } catch (IOException | TimeoutException e) {
+            System.out.println("Could not reach the remote build cache, " + e);
+            this.count("remote.errors", 0);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Checks that an entry can be restored: a complete zip, whose central directory at the
+     * end is only there if nothing was cut off, holding a build state, with every file
+     * matching its checksum.
+     *
+     * @param entry The zip of the entry
+     * @return true if the entry is complete and intact
+     */
+    private static boolean isValid(Path entry) {
+        try (ZipFile zip = new ZipFile(entry.toFile())) {
+            if (zip.getEntry(STATE_ENTRY) == null) return false;
+        } catch (IOException e) {
+            return false;
+        }
+        // Reading to the end of each file is what checks its CRC
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            while (zip.getNextEntry() != null) zip.transferTo(OutputStream.nullOutputStream());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Uploads an entry to the remote cache, streaming it from the local directory.
+     * Failing to upload does not fail the build.
+     */
+    private void upload(String key, Path entry) throws IOException {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(remote + key + ".zip"))
+                .timeout(timeout)
+                .PUT(HttpRequest.BodyPublishers.ofFile(entry))
+                .build();
+            HttpResponse<Void> response = this.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() / 100 == 2) {
+                this.count("remote.uploads", Files.size(entry));
+            } else {
+                System.out.println("Remote build cache refused " + key + " with " + response.statusCode());
+                this.count("remote.errors", 0);
+            }
+        } catch (IOException | TimeoutException e) {
+            System.out.println("Could not upload to the remote build cache, " + e);
+            this.count("remote.errors", 0);
+        }
+    }
+
+    /**
+     * Sends a request, waiting at most the timeout for the whole transfer, not just
+     * for the response headers.
+     */
+    private <T> HttpResponse<T> send(
+        HttpRequest request,
+        HttpResponse.BodyHandler<T> handler
+    ) throws IOException, TimeoutException {
+        CompletableFuture<HttpResponse<T>> response = Downloader.client().sendAsync(request, handler);
+        try {
+            return response.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while talking to the remote build cache", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                ? (IOException) e.getCause()
+                : new IOException(e.getCause());
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        if (!Files.isDirectory(dir)) return new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(p -> p.toString().endsWith(".zip"))
+                .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    /**
+     * Adds one to a counter in the statistics file, and bytes to its byte counter.
+     * Locks the file, since several JSB processes may share the cache.
+     */
+    private void count(String counter, long bytes) throws IOException {
+        if (session != null) session.add(counter, bytes);
+        Files.createDirectories(dir);
+        Path file = dir.resolve("stats.properties");
+        try (
+            FileChannel channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            )
+        ) {
+            FileLock lock = channel.lock();
+            try {
+                Properties stats = new Properties();
+                stats.load(Channels.newInputStream(channel.position(0)));
+                stats.setProperty(counter, String.valueOf(Long.parseLong(stats.getProperty(counter, "0")) + 1));
+                if (bytes > 0) {
+                    String bytesKey = counter + ".bytes";
+                    stats.setProperty(bytesKey, String.valueOf(Long.parseLong(stats.getProperty(bytesKey, "0")) + bytes));
+                }
+                channel.truncate(0);
+                OutputStream out = Channels.newOutputStream(channel.position(0));
+                stats.store(out, null);
+                out.flush();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Counters of one JSB run, shared by the caches of every module of a build.
+     */
+    public static class Stats {
+
+        /** Counter values by name, such as hits or remote.hits.bytes */
+        private Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+        /**
+         * Adds one to a counter, and bytes to its byte counter.
+         *
+         * @param counter The name of the counter
+         * @param bytes The bytes to add to the counter's byte counter
+         */
+        public void add(String counter, long bytes) {
+            counters.computeIfAbsent(counter, name -> new AtomicLong()).incrementAndGet();
+            counters.computeIfAbsent(counter + ".bytes", name -> new AtomicLong()).addAndGet(bytes);
+        }
+
+        /**
+         * @param counter The name of the counter
+         * @return The value of the counter, 0 if it was never counted
+         */
+        public long get(String counter) {
+            AtomicLong value = counters.get(counter);
+            return value == null ? 0 : value.get();
+        }
+
+        /**
+         * @return true if the cache was not looked up during this run
+         */
+        public boolean isEmpty() {
+            return this.get("hits") + this.get("misses") == 0;
+        }
+
+        /**
+         * Formats the hit rate and the remote transfers for printing at the end of a build.
+         *
+         * @return A summary such as "2 of 3 lookup(s) hit (66%), 1 from the remote cache"
+         */
+        public String summary() {
+            long hits = this.get("hits");
+            long lookups = hits + this.get("misses");
+            StringBuilder summary = new StringBuilder(
+                String.format("%d of %d lookup(s) hit (%d%%)", hits, lookups, lookups == 0 ? 0 : hits * 100 / lookups)
+            );
+            long remoteLookups = this.get("remote.hits") + this.get("remote.misses") + this.get("remote.errors");
+            if (remoteLookups + this.get("remote.uploads") > 0) {
+                summary.append(String.format(
+                    ", %d from the remote cache, %d error(s), %d KB downloaded, %d KB uploaded",
+                    this.get("remote.hits"),
+                    this.get("remote.errors"),
+                    this.get("remote.hits.bytes") / 1024,
+                    this.get("remote.uploads.bytes") / 1024
+                ));
+            }
+            return summary.toString();
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Persisted state of the last build, used for incremental compilation.
+ * Records a content hash for every source, the classes compiled from it and the
+ * project classes those classes refer to, which together form the dependency graph.
+ * API fingerprints of the sources and dependency jars decide how far a change spreads.
+ */
+public class BuildState {
+
+    /**
+     * What the state knows about one source file.
+     */
+    public static class Source {
+        /** Content hash of the source file */
+        public String hash;
+        /** Binary names of the classes compiled from this source */
+        public List<String> classes = new ArrayList<>();
+        /** Binary names of the project classes this source refers to */
+        public Set<String> references = new HashSet<>();
+        /** Binary names of the project classes its classes extend or implement */
+        public Set<String> supertypes = new HashSet<>();
+        /** Fingerprint of the public API of its classes, see {@link ClassFile#abi()} */
+        public String abi = "";
+        /** Fingerprint of its visible compile time constants, or an empty string */
+        public String constants = "";
+    }
+
+    /**
+     * A file an annotation processor generated: a source in the generated sources
+     * directory, or a class or resource in the build directory.
+     */
+    public static class Generated {
+        /** Relative paths of the sources its originating elements are declared in */
+        public Set<String> origins = new TreeSet<>();
+
+        /**
+         * A file generated from no source, or from several, may depend on any source,
+         * for example a registry of every annotated class. Such a file can only be
+         * brought up to date by processing all sources again.
+         *
+         * @return true if the file was not generated from exactly one source
+         */
+        public boolean isAggregating() {
+            return origins.size() != 1;
+        }
+    }
+
+    /** Hash of the compiler version and options the state was built against */
+    private String environment = "";
+    /** Hash of the API of every dependency jar on the classpath */
+    private String classpath = "";
+    /** Cached API fingerprints of dependency jars, as "size mtime abi", by path */
+    private Map<String, String> jars = new HashMap<>();
+    /** Sources known to the last build, by path relative to the project */
+    private Map<String, Source> sources = new LinkedHashMap<>();
+    /** Files generated by annotation processors, by path relative to the project */
+    private Map<String, Generated> generated = new LinkedHashMap<>();
+    /** The file the state is stored in */
+    private File file;
+
+    /**
+     * Creates an empty build state backed by the given file.
+     *
+     * @param file The file to load from and save to
+     */
+    public BuildState(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the state from disk, if it exists.
+     *
+     * @return true if a previous state was loaded
+     */
+    public boolean load() {
+        this.reset();
+        if (!file.exists()) return false;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Source current = null;
+            Generated currentGenerated = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space == -1) continue;
+                String key = line.substring(0, space);
+                String value = line.substring(space + 1);
+                switch (key) {
+                    case "environment":
+                        environment = value;
+                        break;
+                    case "classpath":
+                        classpath = value;
+                        break;
+                    case "jar":
+                        int pathStart = value.indexOf(' ', value.indexOf(' ', value.indexOf(' ') + 1) + 1);
+                        jars.put(value.substring(pathStart + 1), value.substring(0, pathStart));
+                        break;
+                    case "source":
+                        int split = value.indexOf(' ');
+                        current = new Source();
+                        current.hash = value.substring(0, split);
+                        sources.put(value.substring(split + 1), current);
+                        break;
+                    case "class":
+                        current.classes.add(value);
+                        break;
+                    case "ref":
+                        current.references.add(value);
+                        break;
+                    case "super":
+                        current.supertypes.add(value);
+                        break;
+                    case "abi":
+                        current.abi = value;
+                        break;
+                    case "constants":
+                        current.constants = value.equals("-") ? "" : value;
+                        break;
+                    case "generated":
+                        currentGenerated = new Generated();
+                        generated.put(value, currentGenerated);
+                        break;
+                    case "origin":
+                        currentGenerated.origins.add(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable build state " + file + ": " + e.getMessage());
+            this.reset();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the state to disk.
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void save() throws IOException {
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("environment " + environment + "\n");
+            writer.write("classpath " + classpath + "\n");
+            for (Map.Entry<String, String> jar : jars.entrySet()) {
+                writer.write("jar " + jar.getValue() + " " + jar.getKey() + "\n");
+            }
+            for (Map.Entry<String, Source> entry : sources.entrySet()) {
+                Source source = entry.getValue();
+                writer.write("source " + source.hash + " " + entry.getKey() + "\n");
+                writer.write("abi " + source.abi + "\n");
+                writer.write("constants " + (source.constants.isEmpty() ? "-" : source.constants) + "\n");
+                for (String className : source.classes) {
+                    writer.write("class " + className + "\n");
+                }
+                for (String reference : source.references) {
+                    writer.write("ref " + reference + "\n");
+                }
+                for (String supertype : source.supertypes) {
+                    writer.write("super " + supertype + "\n");
+                }
+            }
+            for (Map.Entry<String, Generated> entry : generated.entrySet()) {
+                writer.write("generated " + entry.getKey() + "\n");
+                for (String origin : entry.getValue().origins) {
+                    writer.write("origin " + origin + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the state, so the next build is a full build.
+     */
+    public void clear() {
+        this.reset();
+        if (file.exists()) file.delete();
+    }
+
+    private void reset() {
+        sources.clear();
+        generated.clear();
+        jars.clear();
+        environment = "";
+        classpath = "";
+    }
+
+    /**
+     * @return The hash of the compiler version and options of the last build
+     */
+    public String getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * @param environment The hash of the compiler version and options of this build
+     */
+    public void setEnvironment(String environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * @return The hash of the API of the dependency jars of the last build
+     */
+    public String getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * @param classpath The hash of the API of the dependency jars of this build
+     */
+    public void setClasspath(String classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * Returns the API fingerprint of a dependency jar, reusing the cached one
+     * when the jar's size and modification time did not change.
+     *
+     * @param jar The dependency jar
+     * @return The API fingerprint of the jar
+     * @throws IOException If the jar cannot be read
+     */
+    public String jarAbi(File jar) throws IOException {
+        String stamp = jar.length() + " " + jar.lastModified();
+        String cached = jars.get(jar.getPath());
+        if (cached != null && cached.startsWith(stamp + " ")) {
+            return cached.substring(stamp.length() + 1);
+        }
+        String abi = ClassFile.jarAbi(jar);
+        jars.put(jar.getPath(), stamp + " " + abi);
+        return abi;
+    }
+
+    /**
+     * @return The sources known to the last build, by relative path
+     */
+    public Map<String, Source> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return The files generated by annotation processors during the last build, by relative path
+     */
+    public Map<String, Generated> getGenerated() {
+        return generated;
+    }
+
+    /**
+     * Finds every source that has to be recompiled because the API of some classes changed.
+     * These are the sources referring to one of the classes, or to a subtype of one of them,
+     * since a subtype inherits the changed members without referring to them itself.
+     *
+     * @param changedClasses Internal names of the classes whose API changed
+     * @return The relative paths of the sources to recompile
+     */
+    public Set<String> dependentsOf(Set<String> changedClasses) {
+        Set<String> affected = new HashSet<>(changedClasses);
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (Source source : sources.values()) {
+                if (!affected.containsAll(source.classes)
+                    && !Collections.disjoint(source.supertypes, affected)) {
+                    affected.addAll(source.classes);
+                    grew = true;
+                }
+            }
+        }
+
+        Set<String> found = new LinkedHashSet<>();
+        for (Map.Entry<String, Source> entry : sources.entrySet()) {
+            if (!Collections.disjoint(entry.getValue().references, affected)) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Splits sources into batches that can be compiled at the same time.
+     * Sources that depend on each other in a cycle (strongly connected components)
+     * always share a batch. Components are ordered into layers, where every layer only
+     * depends on earlier layers, and each layer is spread over at most the given number
+     * of batches with about the same number of sources each.
+     * Sources the graph does not know yet go into one batch in a final layer.
+     *
+     * @param graph The sources of a previous build, by relative path
+     * @param keys The relative paths of the sources to compile
+     * @param batches The maximum number of batches per layer
+     * @return The layers, each holding batches of relative paths
+     */
+    public static List<List<List<String>>> partition(
+        Map<String, Source> graph,
+        Collection<String> keys,
+        int batches
+    ) {
+        Map<String, String> owners = new HashMap<>();
+        for (String key : keys) {
+            Source source = graph.get(key);
+            if (source == null) continue;
+            for (String className : source.classes) owners.put(className, key);
+        }
+
+        Map<String, Set<String>> edges = new LinkedHashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (String key : keys) {
+            Source source = graph.get(key);
+            if (source == null) {
+                unknown.add(key);
+                continue;
+            }
+            Set<String> targets = new LinkedHashSet<>();
+            for (String reference : source.references) {
+                String owner = owners.get(reference);
+                if (owner != null && !owner.equals(key)) targets.add(owner);
+            }
+            edges.put(key, targets);
+        }
+
+        // Tarjan emits components in reverse topological order, dependencies first
+        List<List<String>> components = new Tarjan(edges).run();
+        Map<String, Integer> componentOf = new HashMap<>();
+        for (int i = 0; i < components.size(); i++) {
+            for (String key : components.get(i)) componentOf.put(key, i);
+        }
+        int[] layerOf = new int[components.size()];
+        int layerCount = 0;
+        for (int i = 0; i < components.size(); i++) {
+            for (String key : components.get(i)) {
+                for (String target : edges.get(key)) {
+                    int dependency = componentOf.get(target);
+                    if (dependency != i) layerOf[i] = Math.max(layerOf[i], layerOf[dependency] + 1);
+                }
+            }
+            layerCount = Math.max(layerCount, layerOf[i] + 1);
+        }
+
+        List<List<List<String>>> layers = new ArrayList<>();
+        for (int layer = 0; layer < layerCount; layer++) {
+            List<List<String>> layerComponents = new ArrayList<>();
+            for (int i = 0; i < components.size(); i++) {
+                if (layerOf[i] == layer) layerComponents.add(components.get(i));
+            }
+            layerComponents.sort((a, b) -> b.size() - a.size());
+
+            List<List<String>> layerBatches = new ArrayList<>();
+            for (List<String> component : layerComponents) {
+                if (layerBatches.size() < batches) {
+                    layerBatches.add(new ArrayList<>(component));
+                    continue;
+                }
+                List<String> smallest = layerBatches.get(0);
+                for (List<String> batch : layerBatches) {
+                    if (batch.size() < smallest.size()) smallest = batch;
+                }
+                smallest.addAll(component);
+            }
+            layers.add(layerBatches);
+        }
+        if (!unknown.isEmpty()) layers.add(List.of(unknown));
+        return layers;
+    }
+
+    /**
+     * Tarjan's strongly connected components algorithm, without recursion so deep
+     * dependency chains cannot overflow the stack.
+     */
+    private static class Tarjan {
+        private Map<String, Set<String>> edges;
+        private Map<String, Integer> index = new HashMap<>();
+        private Map<String, Integer> lowLink = new HashMap<>();
+        private Deque<String> stack = new ArrayDeque<>();
+        private Set<String> onStack = new HashSet<>();
+        private List<List<String>> components = new ArrayList<>();
+        private int counter = 0;
+
+        Tarjan(Map<String, Set<String>> edges) {
+            this.edges = edges;
+        }
+
+        List<List<String>> run() {
+            for (String node : edges.keySet()) {
+                if (!index.containsKey(node)) visit(node);
+            }
+            return components;
+        }
+
+        private void visit(String root) {
+            Deque<Iterator<String>> iterators = new ArrayDeque<>();
+            Deque<String> path = new ArrayDeque<>();
+            open(root);
+            path.push(root);
+            iterators.push(edges.get(root).iterator());
+
+            while (!path.isEmpty()) {
+                String node = path.peek();
+                Iterator<String> targets = iterators.peek();
+                if (targets.hasNext()) {
+                    String target = targets.next();
+                    if (!index.containsKey(target)) {
+                        open(target);
+                        path.push(target);
+                        iterators.push(edges.get(target).iterator());
+                    } else if (onStack.contains(target)) {
+                        lowLink.put(node, Math.min(lowLink.get(node), index.get(target)));
+                    }
+                    continue;
+                }
+
+                path.pop();
+                iterators.pop();
+                if (!path.isEmpty()) {
+                    String parent = path.peek();
+                    lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(node)));
+                }
+                if (lowLink.get(node).equals(index.get(node))) {
+                    List<String> component = new ArrayList<>();
+                    String member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                    } while (!member.equals(node));
+                    components.add(component);
+                }
+            }
+        }
+
+        private void open(String node) {
+            index.put(node, counter);
+            lowLink.put(node, counter);
+            counter++;
+            stack.push(node);
+            onStack.add(node);
+        }
+    }
+
+    /**
+     * Turns a path into the key used for it in the state, relative to the working directory.
+     *
+     * @param path The path of a source file
+     * @return The normalized relative path
+     */
+    public static String key(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path base = Paths.get("").toAbsolutePath();
+        return absolute.startsWith(base) ? base.relativize(absolute).toString() : absolute.toString();
+    }
+
+    /**
+     * Hashes some bytes with SHA-256.
+     *
+     * @param bytes The bytes to hash
+     * @return The hash as a lower case hex string
+     */
+    public static String hash(byte[] bytes) {
+        return hex(digest().digest(bytes));
+    }
+
+    /**
+     * @return A new SHA-256 message digest
+     */
+    public static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Formats bytes as a lower case hex string.
+     *
+     * @param bytes The bytes to format
+     * @return The hex string
+     */
+    public static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
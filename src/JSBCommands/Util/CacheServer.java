@@ -0,0 +1,119 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal remote build cache, answering GET and PUT on /<key>.zip from a directory.
+ * Good enough for a team or a CI fleet, and for trying out build.cache.remote locally.
+ */
+public class CacheServer {
+
+    /** Only plain cache entries can be read or written, never other files */
+    private static final Pattern ENTRY = Pattern.compile("/[0-9a-f]{16,128}\\.zip");
+
+    /** The underlying HTTP server */
+    private HttpServer server;
+    /** Directory holding the entries */
+    private Path dir;
+
+    /**
+     * Starts serving the entries in a directory.
+     *
+     * @param port The port to listen on, 0 for any free port
+     * @param dir The directory to store entries in, created when needed
+     * @throws IOException If the port cannot be bound
+     */
+    public CacheServer(int port, Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+    }
+
+    /**
+     * @return The port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (!ENTRY.matcher(path).matches()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            Path entry = dir.resolve(path.substring(1));
+
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                case "HEAD":
+                    if (!Files.exists(entry)) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    boolean head = exchange.getRequestMethod().equals("HEAD");
+                    exchange.getResponseHeaders().set("Content-Type", "application/zip");
+                    exchange.sendResponseHeaders(200, head ? -1 : Files.size(entry));
+                    if (!head) {
+                        try (OutputStream out = exchange.getResponseBody()) {
+                            Files.copy(entry, out);
+                        }
+                    }
+                    break;
+                case "PUT":
+                    // Readers only ever see complete entries
+                    Path temp = Files.createTempFile(dir, "upload", ".tmp");
+                    try (InputStream in = exchange.getRequestBody()) {
+                        Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                        Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                    exchange.sendResponseHeaders(201, -1);
+                    break;
+                default:
+                    exchange.sendResponseHeaders(405, -1);
+            }
+            System.out.println(exchange.getRequestMethod() + " " + path + " " + exchange.getResponseCode());
+        }
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Minimal reader for compiled .class files.
+ * Reads the constant pool to find which classes a class refers to, and the
+ * class structure (fields, methods and attributes) needed to compare classes.
+ */
+public class ClassFile {
+
+    /** Access flag for public members */
+    public static final int ACC_PUBLIC = 0x0001;
+    /** Access flag for private members */
+    public static final int ACC_PRIVATE = 0x0002;
+    /** Access flag for static members */
+    public static final int ACC_STATIC = 0x0008;
+    /** Access flag for final members */
+    public static final int ACC_FINAL = 0x0010;
+
+    /** Internal name of this class, e.g. pkg/Outer$Inner */
+    public String name;
+    /** Internal name of the super class, or null for java/lang/Object */
+    public String superName;
+    /** Internal names of the implemented interfaces */
+    public List<String> interfaces = new ArrayList<>();
+    /** Access flags of the class */
+    public int access;
+    /** Every class name this class refers to through its constant pool, descriptors and annotations */
+    public Set<String> references = new HashSet<>();
+    /** Declared fields */
+    public List<Member> fields = new ArrayList<>();
+    /** Declared methods */
+    public List<Member> methods = new ArrayList<>();
+    /** Class level attributes, by attribute name */
+    public Map<String, byte[]> attributes = new LinkedHashMap<>();
+
+    /** Constant pool entries, resolved to strings where that makes sense */
+    private Object[] pool;
+
+    /**
+     * A field or method of a class.
+     */
+    public static class Member {
+        /** Access flags of the member */
+        public int access;
+        /** Name of the member */
+        public String name;
+        /** Type descriptor of the member */
+        public String descriptor;
+        /** Member attributes, by attribute name */
+        public Map<String, byte[]> attributes = new LinkedHashMap<>();
+        /** Compile time constant value of a field, or null */
+        public Object constant;
+
+        /**
+         * Checks if this member is visible outside of its own class.
+         *
+         * @return true unless the member is private
+         */
+        public boolean isVisible() {
+            return (access & ACC_PRIVATE) == 0;
+        }
+    }
+
+    /**
+     * Parses a class file.
+     *
+     * @param bytes The raw bytes of the class file
+     * @return The parsed class
+     * @throws IOException If the bytes are not a valid class file
+     */
+    public static ClassFile read(byte[] bytes) throws IOException {
+        ClassFile classFile = new ClassFile();
+        classFile.parse(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return classFile;
+    }
+
+    private void parse(DataInputStream in) throws IOException {
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int count = in.readUnsignedShort();
+        pool = new Object[count];
+        int[] classIndexes = new int[count];
+        int[] stringIndexes = new int[count];
+        ArrayList<Integer> descriptorIndexes = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    pool[i] = in.readUTF();
+                    break;
+                case 3: // Integer
+                    pool[i] = in.readInt();
+                    break;
+                case 4: // Float
+                    pool[i] = in.readFloat();
+                    break;
+                case 5: // Long
+                    pool[i++] = in.readLong();
+                    break;
+                case 6: // Double
+                    pool[i++] = in.readDouble();
+                    break;
+                case 7: // Class
+                    classIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                    stringIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 19: // Module
+                case 20: // Package
+                    in.readUnsignedShort();
+                    break;
+                case 16: // MethodType
+                    descriptorIndexes.add(in.readUnsignedShort());
+                    break;
+                case 12: // NameAndType
+                    in.readUnsignedShort();
+                    descriptorIndexes.add(in.readUnsignedShort());
+                    break;
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.readInt();
+                    break;
+                case 15: // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        for (int i = 1; i < count; i++) {
+            if (classIndexes[i] != 0) {
+                String className = (String) pool[classIndexes[i]];
+                pool[i] = className;
+                addType(className);
+            }
+            if (stringIndexes[i] != 0) {
+                pool[i] = pool[stringIndexes[i]];
+            }
+        }
+        for (int index : descriptorIndexes) {
+            addDescriptor((String) pool[index]);
+        }
+
+        access = in.readUnsignedShort();
+        name = (String) pool[in.readUnsignedShort()];
+        int superIndex = in.readUnsignedShort();
+        superName = superIndex == 0 ? null : (String) pool[superIndex];
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add((String) pool[in.readUnsignedShort()]);
+        }
+
+        fields = readMembers(in);
+        methods = readMembers(in);
+        attributes = readAttributes(in);
+
+        addAnnotationTypes(attributes);
+        for (Member member : fields) {
+            addDescriptor(member.descriptor);
+            addAnnotationTypes(member.attributes);
+        }
+        for (Member member : methods) {
+            addDescriptor(member.descriptor);
+            addAnnotationTypes(member.attributes);
+        }
+        references.remove(name);
+    }
+
+    private List<Member> readMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<Member> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Member member = new Member();
+            member.access = in.readUnsignedShort();
+            member.name = (String) pool[in.readUnsignedShort()];
+            member.descriptor = (String) pool[in.readUnsignedShort()];
+            member.attributes = readAttributes(in);
+
+            byte[] constant = member.attributes.get("ConstantValue");
+            if (constant != null) {
+                member.constant = pool[((constant[0] & 0xFF) << 8) | (constant[1] & 0xFF)];
+            }
+            members.add(member);
+        }
+        return members;
+    }
+
+    private Map<String, byte[]> readAttributes(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Map<String, byte[]> attrs = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String attrName = (String) pool[in.readUnsignedShort()];
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            attrs.put(attrName, data);
+            if (attrName.equals("Signature")) {
+                int index = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+                addDescriptor((String) pool[index]);
+            }
+        }
+        return attrs;
+    }
+
+    /**
+     * Adds the types named in annotations, including nested annotations and enum
+     * and class element values. These are plain descriptors rather than class
+     * constants, so the constant pool alone does not list them.
+     */
+    private void addAnnotationTypes(Map<String, byte[]> attrs) throws IOException {
+        // The annotation readers add every type they pass to the references
+        appendAttributes(new StringBuilder(), attrs, null);
+        byte[] code = attrs.get("Code");
+        if (code != null) {
+            // Type annotations inside method bodies, after the bytecode and exception table
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(code));
+            in.skipBytes(4);
+            in.skipBytes(in.readInt());
+            in.skipBytes(in.readUnsignedShort() * 8);
+            addAnnotationTypes(readAttributes(in));
+        }
+    }
+
+    /**
+     * Fingerprints the public API of this class: its access flags, supertypes,
+     * signatures, annotations, and every non-private field and method, including
+     * constant values. Method bodies and private members do not affect it.
+     *
+     * @return A hash that only changes when classes compiled against this one could be affected
+     * @throws IOException If an attribute is malformed
+     */
+    public String abi() throws IOException {
+        StringBuilder api = new StringBuilder();
+        api.append("class ").append(access & ~0x0020).append(' ').append(name).append('\n');
+        api.append("extends ").append(superName).append('\n');
+        for (String iface : interfaces) {
+            api.append("implements ").append(iface).append('\n');
+        }
+        appendAttributes(api, attributes, "PermittedSubclasses");
+
+        List<String> members = new ArrayList<>();
+        for (Member field : fields) {
+            if (field.isVisible()) members.add("field " + describe(field));
+        }
+        for (Member method : methods) {
+            if (method.isVisible()) members.add("method " + describe(method));
+        }
+        Collections.sort(members);
+        for (String member : members) {
+            api.append(member);
+        }
+        return BuildState.hash(api.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Fingerprints the public API of every class in a jar.
+     *
+     * @param jar The jar file
+     * @return A hash that only changes when the API of the jar changes
+     * @throws IOException If the jar or one of its classes cannot be read
+     */
+    public static String jarAbi(File jar) throws IOException {
+        TreeMap<String, String> classes = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String entryName = entry.getName();
+                if (!entryName.endsWith(".class") || entryName.endsWith("module-info.class")) continue;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    classes.put(entryName, read(in.readAllBytes()).abi());
+                }
+            }
+        }
+        return BuildState.hash(classes.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Fingerprints the visible compile time constants of this class.
+     * javac inlines such constants into other classes without leaving a reference behind.
+     *
+     * @return A hash of the constants, or an empty string if there are none
+     */
+    public String constants() {
+        List<String> values = new ArrayList<>();
+        for (Member field : fields) {
+            if (field.isVisible() && field.constant != null) {
+                values.add(field.name + "=" + field.constant);
+            }
+        }
+        if (values.isEmpty()) return "";
+        Collections.sort(values);
+        return BuildState.hash(String.join("\n", values).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String describe(Member member) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append(member.access).append(' ').append(member.name).append(' ').append(member.descriptor);
+        if (member.constant != null) builder.append(" = ").append(member.constant);
+        builder.append('\n');
+        appendAttributes(builder, member.attributes, "Exceptions");
+        return builder.toString();
+    }
+
+    /**
+     * Appends the API relevant attributes, resolving constant pool indexes so the
+     * result does not depend on how javac laid out the constant pool.
+     */
+    private void appendAttributes(StringBuilder builder, Map<String, byte[]> attrs, String classList)
+        throws IOException {
+        for (Map.Entry<String, byte[]> attr : attrs.entrySet()) {
+            String attrName = attr.getKey();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(attr.getValue()));
+            if (attrName.equals("Signature")) {
+                builder.append("  signature ").append(constant(in.readUnsignedShort())).append('\n');
+            } else if (attrName.equals(classList)) {
+                builder.append("  ").append(attrName);
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    builder.append(' ').append(constant(in.readUnsignedShort()));
+                }
+                builder.append('\n');
+            } else if (attrName.endsWith("ParameterAnnotations")) {
+                builder.append("  ").append(attrName);
+                int parameters = in.readUnsignedByte();
+                for (int i = 0; i < parameters; i++) {
+                    builder.append(" (");
+                    readAnnotations(in, builder);
+                    builder.append(')');
+                }
+                builder.append('\n');
+            } else if (attrName.endsWith("TypeAnnotations")) {
+                builder.append("  ").append(attrName).append(' ');
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    readTypeAnnotation(in, builder);
+                }
+                builder.append('\n');
+            } else if (attrName.endsWith("Annotations")) {
+                builder.append("  ").append(attrName).append(' ');
+                readAnnotations(in, builder);
+                builder.append('\n');
+            } else if (attrName.equals("AnnotationDefault")) {
+                builder.append("  default ");
+                readElementValue(in, builder);
+                builder.append('\n');
+            }
+        }
+    }
+
+    private void readAnnotations(DataInputStream in, StringBuilder builder) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            readAnnotation(in, builder);
+        }
+    }
+
+    private void readAnnotation(DataInputStream in, StringBuilder builder) throws IOException {
+        String type = (String) constant(in.readUnsignedShort());
+        addDescriptor(type);
+        builder.append('@').append(type).append('(');
+        int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            builder.append(constant(in.readUnsignedShort())).append('=');
+            readElementValue(in, builder);
+            builder.append(',');
+        }
+        builder.append(')');
+    }
+
+    /**
+     * Reads a type annotation, e.g. a nullness annotation on a type argument. The
+     * annotation is preceded by what it annotates, whose layout depends on the target type.
+     */
+    private void readTypeAnnotation(DataInputStream in, StringBuilder builder) throws IOException {
+        int target = in.readUnsignedByte();
+        builder.append(Integer.toHexString(target)).append(':');
+        switch (target) {
+            case 0x00: // Type parameter of a class or method
+            case 0x01:
+            case 0x16: // Method parameter
+                builder.append(in.readUnsignedByte());
+                break;
+            case 0x10: // Supertype
+            case 0x17: // Throws clause
+                builder.append(in.readUnsignedShort());
+                break;
+            case 0x11: // Bound of a type parameter
+            case 0x12:
+                builder.append(in.readUnsignedByte()).append('.').append(in.readUnsignedByte());
+                break;
+            case 0x13: // Field, return type or receiver
+            case 0x14:
+            case 0x15:
+                break;
+            case 0x40: // Local variables, only found in method bodies
+            case 0x41:
+                in.skipBytes(in.readUnsignedShort() * 6);
+                break;
+            case 0x42: // Catch, instanceof, new and method references in method bodies
+            case 0x43:
+            case 0x44:
+            case 0x45:
+            case 0x46:
+                in.skipBytes(2);
+                break;
+            case 0x47: // Casts and type arguments of calls in method bodies
+            case 0x48:
+            case 0x49:
+            case 0x4A:
+            case 0x4B:
+                in.skipBytes(3);
+                break;
+            default:
+                throw new IOException("Unknown type annotation target " + target);
+        }
+        int path = in.readUnsignedByte();
+        for (int i = 0; i < path; i++) {
+            builder.append('/').append(in.readUnsignedByte()).append('.').append(in.readUnsignedByte());
+        }
+        readAnnotation(in, builder);
+    }
+
+    private void readElementValue(DataInputStream in, StringBuilder builder) throws IOException {
+        char tag = (char) in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                String enumType = (String) constant(in.readUnsignedShort());
+                addDescriptor(enumType);
+                builder.append(enumType).append('.').append(constant(in.readUnsignedShort()));
+                break;
+            case '@':
+                readAnnotation(in, builder);
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                builder.append('[');
+                for (int i = 0; i < count; i++) {
+                    readElementValue(in, builder);
+                    builder.append(',');
+                }
+                builder.append(']');
+                break;
+            case 'c':
+                String classType = (String) constant(in.readUnsignedShort());
+                addDescriptor(classType);
+                builder.append(tag).append(classType);
+                break;
+            case 's':
+                builder.append(tag).append(constant(in.readUnsignedShort()));
+                break;
+            default:
+                // Primitive constants, the index points at an Integer, Long, Float or Double
+                builder.append(tag).append(constant(in.readUnsignedShort()));
+        }
+    }
+
+    /**
+     * Resolves a constant pool index from inside attribute data.
+     *
+     * @param index The constant pool index
+     * @return The resolved constant, or null if the index is out of range
+     */
+    public Object constant(int index) {
+        if (index <= 0 || index >= pool.length) return null;
+        return pool[index];
+    }
+
+    /**
+     * Adds a class name from a CONSTANT_Class entry, which may be an array descriptor.
+     */
+    private void addType(String className) {
+        if (className.startsWith("[")) {
+            addDescriptor(className);
+        } else {
+            references.add(className);
+        }
+    }
+
+    /**
+     * Adds every class named in a field, method or generic signature descriptor.
+     */
+    private void addDescriptor(String descriptor) {
+        if (descriptor == null) return;
+        int start = descriptor.indexOf('L');
+        while (start != -1) {
+            int end = start + 1;
+            while (end < descriptor.length()) {
+                char c = descriptor.charAt(end);
+                if (c == ';' || c == '<') break;
+                end++;
+            }
+            // Once parsed, the class itself is left out, as annotations can name it too
+            if (end > start + 1 && !descriptor.substring(start + 1, end).equals(name)) {
+                references.add(descriptor.substring(start + 1, end));
+            }
+            start = descriptor.indexOf('L', end);
+        }
+    }
+}
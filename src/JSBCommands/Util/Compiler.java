@@ -0,0 +1,480 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import com.sun.source.util.JavacTask;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles Java source files inside the running JVM using the system Java compiler
+ * ({@link javax.tools}), instead of forking a separate javac process.
+ */
+public class Compiler implements DiagnosticListener<JavaFileObject>, Closeable {
+
+    /** The system Java compiler, or null when running on a JRE without javac */
+    private JavaCompiler javac;
+    /** Number of errors reported during the last compilation */
+    private int errors;
+    /** Number of warnings reported during the last compilation */
+    private int warnings;
+    /** Internal names of the classes written for each source during the last compilation */
+    private Map<Path, List<String>> outputs = new HashMap<>();
+    /** Diagnostics held back until {@link #flush()}, or null to print them right away */
+    private List<String> buffer;
+    /**
+     * File manager kept open between compilations, so dependency jars are only
+     * opened and indexed once while JSB keeps running, e.g. in watch mode
+     */
+    private StandardJavaFileManager fileManager;
+    /** The classpath the file manager was opened for */
+    private List<File> openedClasspath;
+    /** Collects phase timings of every compilation, or null to not time them */
+    private Timings timings;
+    /** The annotation processors to run, or null to let javac look for them on the classpath */
+    private Processors processors;
+    /** Where the processors write sources, or null to keep them with the output */
+    private File generatedSources;
+
+    /**
+     * Creates a new Compiler backed by {@link ToolProvider#getSystemJavaCompiler()}.
+     */
+    public Compiler() {
+        this.javac = ToolProvider.getSystemJavaCompiler();
+    }
+
+    /**
+     * Checks if an in-process compiler is available in this JVM.
+     *
+     * @return true if javac can be called in-process, false otherwise
+     */
+    public boolean available() {
+        return javac != null;
+    }
+
+    /**
+     * Compiles the given source files into the output directory.
+     *
+     * @param sources The Java source files to compile
+     * @param classpath The classpath entries (jars or directories) to compile against
+     * @param outputDir The directory to write class files to
+     * @param options Any extra javac options, such as -verbose
+     * @return true if compilation finished without errors, false otherwise
+     * @throws IOException If the file manager cannot be set up
+     */
+    public boolean compile(
+        List<File> sources,
+        List<File> classpath,
+        File outputDir,
+        List<String> options
+    ) throws IOException {
+        this.open(classpath);
+        if (!outputDir.exists()) outputDir.mkdirs();
+        fileManager.setLocation(
+            StandardLocation.CLASS_OUTPUT,
+            List.of(outputDir)
+        );
+        return this.run(sources, recording(fileManager), options);
+    }
+
+    /**
+     * Compiles the given source files without writing anything to disk. Class files,
+     * and any other files written to the class output, are kept in memory.
+     *
+     * @param sources The Java source files to compile
+     * @param classpath The classpath entries (jars or directories) to compile against
+     * @param options Any extra javac options, such as -verbose
+     * @return The written files by path in the class output (e.g. pkg/Main.class),
+     *         or null if compilation failed
+     * @throws IOException If the file manager cannot be set up
+     */
+    public Map<String, byte[]> compileToMemory(
+        List<File> sources,
+        List<File> classpath,
+        List<String> options
+    ) throws IOException {
+        return this.compileToMemory(sources, classpath, options, Map.of());
+    }
+
+    /**
+     * Compiles the given source files without writing anything to disk, against classes
+     * that only exist in memory as well, such as the output of an earlier compilation.
+     *
+     * @param sources The Java source files to compile
+     * @param classpath The classpath entries (jars or directories) to compile against
+     * @param options Any extra javac options, such as --release
+     * @param visible Class files by path (e.g. pkg/Main.class), looked up before the classpath
+     * @return The written files by path in the class output, or null if compilation failed
+     * @throws IOException If the file manager cannot be set up
+     */
+    public Map<String, byte[]> compileToMemory(
+        List<File> sources,
+        List<File> classpath,
+        List<String> options,
+        Map<String, byte[]> visible
+    ) throws IOException {
+        this.open(classpath);
+        Map<String, byte[]> files = new TreeMap<>();
+        boolean success = this.run(sources, inMemory(fileManager, files, visible), options);
+        return success ? files : null;
+    }
+
+    /**
+     * Opens the file manager, or keeps the open one if the classpath did not change.
+     */
+    private void open(List<File> classpath) throws IOException {
+        if (!available()) {
+            throw new IllegalStateException(
+                "No in-process Java compiler found. Are you running on a JRE?"
+            );
+        }
+        this.errors = 0;
+        this.warnings = 0;
+        this.outputs = new HashMap<>();
+
+        if (fileManager == null || !classpath.equals(openedClasspath)) {
+            this.close();
+            fileManager = javac.getStandardFileManager(
+                this,
+                Locale.getDefault(),
+                StandardCharsets.UTF_8
+            );
+            openedClasspath = new ArrayList<>(classpath);
+        }
+        fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+        // Only compile the given sources, never sources found on the classpath
+        fileManager.setLocation(StandardLocation.SOURCE_PATH, List.of());
+        if (generatedSources != null) {
+            generatedSources.mkdirs();
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, List.of(generatedSources));
+        }
+    }
+
+    /**
+     * Runs javac on the sources through the given file manager and prints the totals.
+     */
+    private boolean run(
+        List<File> sources,
+        JavaFileManager manager,
+        List<String> options
+    ) {
+        Iterable<? extends JavaFileObject> units =
+            fileManager.getJavaFileObjectsFromFiles(sources);
+
+        JavaCompiler.CompilationTask task =
+            javac.getTask(null, manager, this, new ArrayList<>(options), null, units);
+        if (timings != null && task instanceof JavacTask) {
+            ((JavacTask) task).addTaskListener(timings);
+        }
+        if (processors != null) task.setProcessors(processors.create());
+        boolean success = task.call();
+
+        if (errors > 0 || warnings > 0) {
+            this.print(errors + " error(s), " + warnings + " warning(s)");
+        }
+        return success;
+    }
+
+    /**
+     * Closes the file manager, and with it the dependency jars it keeps open.
+     * The compiler can still be used afterwards, it just starts cold again.
+     *
+     * @throws IOException If the file manager cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (fileManager != null) fileManager.close();
+        fileManager = null;
+        openedClasspath = null;
+    }
+
+    /**
+     * Holds diagnostics back instead of printing them, so compilations running
+     * at the same time do not mix their output.
+     *
+     * @param buffered true to hold diagnostics until {@link #flush()}
+     */
+    public void setBuffered(boolean buffered) {
+        this.buffer = buffered ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Runs the given annotation processors instead of the ones javac finds on the classpath.
+     *
+     * @param processors The processors from the processor path, or null for javac's default
+     * @param generatedSources Where generated sources are written, or null to write them
+     *        with the class files, or keep them in memory when compiling to memory
+     */
+    public void setProcessors(Processors processors, File generatedSources) {
+        this.processors = processors;
+        this.generatedSources = generatedSources;
+    }
+
+    /**
+     * @return The annotation processors run by this compiler, or null if javac looks for them
+     */
+    public Processors getProcessors() {
+        return processors;
+    }
+
+    /**
+     * Times the phases of every following compilation per source file.
+     *
+     * @param timings Where to collect the timings, or null to stop timing
+     */
+    public void setTimings(Timings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * @return Where timings are collected, or null if compilations are not timed
+     */
+    public Timings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Prints and forgets the diagnostics held back so far.
+     */
+    public void flush() {
+        if (buffer == null) return;
+        for (String message : buffer) {
+            System.out.println(message);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the classes written during the last compilation.
+     *
+     * @return Internal class names (e.g. pkg/Outer$Inner), by absolute source path
+     */
+    public Map<Path, List<String>> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Wraps a file manager so every class file written is recorded against its source.
+     */
+    private JavaFileManager recording(JavaFileManager fileManager) {
+        return new ForwardingJavaFileManager<JavaFileManager>(fileManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(
+                Location location,
+                String className,
+                JavaFileObject.Kind kind,
+                FileObject sibling
+            ) throws IOException {
+                if (kind == JavaFileObject.Kind.CLASS && sibling != null) {
+                    Path source = Paths.get(sibling.toUri()).toAbsolutePath().normalize();
+                    outputs
+                        .computeIfAbsent(source, k -> new ArrayList<>())
+                        .add(className.replace('.', '/'));
+                }
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+        };
+    }
+
+    /**
+     * Wraps a file manager so everything written to the class output is kept in memory.
+     * Sources generated by annotation processors are kept in memory as well, but apart.
+     * The given class files in memory are listed on the classpath, ahead of the real one.
+     */
+    private JavaFileManager inMemory(
+        JavaFileManager fileManager,
+        Map<String, byte[]> files,
+        Map<String, byte[]> visible
+    ) {
+        Map<String, byte[]> generated = new HashMap<>();
+        return new ForwardingJavaFileManager<JavaFileManager>(fileManager) {
+            @Override
+            public Iterable<JavaFileObject> list(
+                Location location,
+                String packageName,
+                Set<JavaFileObject.Kind> kinds,
+                boolean recurse
+            ) throws IOException {
+                Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+                if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+                    return listed;
+                }
+                List<JavaFileObject> all = new ArrayList<>();
+                String prefix = packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/";
+                for (String path : visible.keySet()) {
+                    if (!path.startsWith(prefix) || !path.endsWith(".class")) continue;
+                    if (!recurse && path.indexOf('/', prefix.length()) >= 0) continue;
+                    all.add(new MemoryFile(path, JavaFileObject.Kind.CLASS, visible));
+                }
+                listed.forEach(all::add);
+                return all;
+            }
+
+            @Override
+            public String inferBinaryName(Location location, JavaFileObject file) {
+                if (file instanceof MemoryFile) {
+                    String path = ((MemoryFile) file).path;
+                    return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+                }
+                return super.inferBinaryName(location, file);
+            }
+
+            @Override
+            public JavaFileObject getJavaFileForOutput(
+                Location location,
+                String className,
+                JavaFileObject.Kind kind,
+                FileObject sibling
+            ) {
+                return new MemoryFile(
+                    className.replace('.', '/') + kind.extension,
+                    kind,
+                    location == StandardLocation.SOURCE_OUTPUT ? generated : files
+                );
+            }
+
+            @Override
+            public FileObject getFileForOutput(
+                Location location,
+                String packageName,
+                String relativeName,
+                FileObject sibling
+            ) {
+                String path = packageName.isEmpty()
+                    ? relativeName
+                    : packageName.replace('.', '/') + "/" + relativeName;
+                return new MemoryFile(
+                    path,
+                    JavaFileObject.Kind.OTHER,
+                    location == StandardLocation.SOURCE_OUTPUT ? generated : files
+                );
+            }
+        };
+    }
+
+    /**
+     * A file written by javac that only exists in memory.
+     */
+    private static class MemoryFile extends SimpleJavaFileObject {
+
+        /** Path of the file in the class output */
+        private String path;
+        /** Where the bytes go once the file is closed */
+        private Map<String, byte[]> files;
+
+        MemoryFile(String path, JavaFileObject.Kind kind, Map<String, byte[]> files) {
+            super(URI.create("mem:///" + path), kind);
+            this.path = path;
+            this.files = files;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    files.put(path, this.toByteArray());
+                }
+            };
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            byte[] bytes = files.get(path);
+            if (bytes == null) throw new FileNotFoundException(path);
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+            return new String(openInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Prints a compiler diagnostic in the usual javac "file:line: kind: message" format.
+     *
+     * @param diagnostic The diagnostic reported by javac
+     */
+    @Override
+    public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+        String kind;
+        switch (diagnostic.getKind()) {
+            case ERROR:
+                kind = "error";
+                errors++;
+                break;
+            case WARNING:
+            case MANDATORY_WARNING:
+                kind = "warning";
+                warnings++;
+                break;
+            default:
+                kind = "note";
+        }
+
+        String message = diagnostic.getMessage(Locale.getDefault());
+        if (diagnostic.getSource() == null) {
+            this.print(kind + ": " + message);
+        } else {
+            this.print(
+                String.format(
+                    "%s:%d: %s: %s",
+                    diagnostic.getSource().getName(),
+                    diagnostic.getLineNumber(),
+                    kind,
+                    message
+                )
+            );
+        }
+    }
+
+    private void print(String message) {
+        if (buffer != null) buffer.add(message);
+        else System.out.println(message);
+    }
+}
@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Properties;
 
 /**
@@ -37,6 +39,23 @@ public class Config {
     /** Flag indicating if the configuration has been successfully loaded */
     private boolean isReady = false;
 
+    /** Directory holding build.properties, all configured paths are relative to it */
+    private File baseDir;
+
+    /**
+     * Creates a configuration for the project in the working directory.
+     */
+    public Config() {
+        this(new File("."));
+    }
+
+    /**
+     * Creates a configuration for the project in the given directory, such as a module.
+     * @param baseDir The directory holding build.properties
+     */
+    public Config(File baseDir) {
+        this.baseDir = baseDir;
+    }
 
     /**
      * Checks if the configuration has been loaded successfully
@@ -51,7 +70,7 @@ public class Config {
      * or creating default properties if file doesn't exist
      */
     public void initConfig() {
-        File buildPropFile = new File("build.properties");
+        File buildPropFile = this.propertiesFile();
         this.properties = new Properties();
         if (buildPropFile.exists()) {
             loadProperties();
@@ -64,7 +83,7 @@ public class Config {
      */
     private void saveProperties() {
         try {
-            properties.store(new FileOutputStream("build.properties"), null);
+            properties.store(new FileOutputStream(this.propertiesFile()), null);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -75,7 +94,7 @@ public class Config {
      */
     public void loadProperties() {
         try {
-            FileInputStream in = new FileInputStream("build.properties");
+            FileInputStream in = new FileInputStream(this.propertiesFile());
             properties.load(in);
             in.close();
             isReady = true;
@@ -87,25 +106,57 @@ public class Config {
     /**
      * Sets default configuration properties for build, Java, packaging and system settings.
      * Properties include build paths, commands, Java runtime settings, and system-specific values.
+     * Values already loaded from build.properties are kept, except for the system settings
+     * which are always detected from the current OS.
      */
     private void setDefaultProperties() {
-        properties.setProperty("code.path", "./src");
-
-        properties.setProperty("build.cmd", "javac");
-        properties.setProperty("build.builds", "./classes");
-        properties.setProperty("build.verbose", "true");
-
-        properties.setProperty("java.path", "java");
-        properties.setProperty("java.class", "Main");
-
-        properties.setProperty("resource.path", "./res");
-
-        properties.setProperty("package.cmd", "jar");
-        properties.setProperty("package.path", "./dist");
-        properties.setProperty("package.name", "MainPackage");
-
-        properties.setProperty("dep.path", "./lib");
-        properties.setProperty("repo.url", "https://repo1.maven.org/maven2/");
+        setDefault("code.path", "./src");
+
+        setDefault("build.cmd", "javac");
+        setDefault("build.compiler", "internal");
+        setDefault("build.builds", "./classes");
+        setDefault("build.verbose", "true");
+        setDefault("build.incremental", "true");
+        setDefault("build.state", "./.jsb");
+        setDefault("build.parallelism", "auto");
+        setDefault("build.watch.debounce", "200");
+        setDefault("build.timings", "false");
+        setDefault("build.timings.top", "10");
+        setDefault("build.processors", "");
+        setDefault("build.processors.untracked", "");
+        setDefault("build.release", "");
+        setDefault("build.release.sets", "");
+        setDefault("build.cache", "true");
+        setDefault("build.cache.path", "~/.jsb/build-cache");
+        setDefault("build.cache.size", "512");
+        setDefault("build.cache.incremental", "false");
+        setDefault("build.cache.remote", "");
+        setDefault("build.cache.remote.timeout", "30000");
+        setDefault("build.cache.remote.push", "true");
+
+        setDefault("java.path", "java");
+        setDefault("java.class", "Main");
+
+        setDefault("resource.path", "./res");
+
+        setDefault("package.cmd", "jar");
+        setDefault("package.path", "./dist");
+        setDefault("package.name", "MainPackage");
+        setDefault("package.mode", "disk");
+
+        setDefault("dep.path", "./lib");
+        setDefault("repo.url", "https://repo1.maven.org/maven2/");
+        setDefault("repo.mirrors", "");
+        setDefault("repo.hedge.delay", "1000");
+        setDefault("repo.local", "~/.m2/repository");
+        setDefault("dep.concurrency", "8");
+        setDefault("dep.store", "~/.jsb/artifacts");
+        setDefault("dep.store.size", "2048");
+        setDefault("dep.check.ttl", "10080");
+        setDefault("dep.check.ttl.missing", "10");
+        setDefault("dep.snapshot.interval", "1440");
+
+        setDefault("daemon.idle", "60");
 
         String os = System.getProperty("os.name").toLowerCase();
         boolean isWindows = os.contains("win");
@@ -117,6 +168,17 @@ public class Config {
         saveProperties();
     }
 
+    /**
+     * Sets a property only if it was not already loaded from build.properties
+     * @param key The property key to set
+     * @param value The default value for the key
+     */
+    private void setDefault(String key, String value) {
+        if (properties.getProperty(key) == null) {
+            properties.setProperty(key, value);
+        }
+    }
+
     /**
      * Retrieves a property value by its key
      * @param key The property key to look up
@@ -126,6 +188,34 @@ public class Config {
         return properties.getProperty(key);
     }
 
+    /**
+     * Resolves a path property against the project directory, or against the
+     * user's home directory if it starts with ~/
+     * @param key The property key holding a path, such as code.path
+     * @return The path, relative to the working directory
+     */
+    public Path path(String key) {
+        String value = get(key);
+        if (value.equals("~") || value.startsWith("~/")) {
+            return Paths.get(System.getProperty("user.home"), value.substring(1)).normalize();
+        }
+        return baseDir.toPath().resolve(value).normalize();
+    }
+
+    /**
+     * @return The directory holding build.properties
+     */
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    /**
+     * @return The build.properties file of this project
+     */
+    private File propertiesFile() {
+        return new File(baseDir, "build.properties");
+    }
+
     /**
      * Sets a property value and saves it to the properties file
      * @param key The property key to set
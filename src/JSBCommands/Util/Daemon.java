@@ -0,0 +1,254 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import Command.Manager;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A JSB process that stays running in the background, so commands are handled by a
+ * warm JVM with the configuration, dependencies and in-process compiler already loaded.
+ * Clients send the command line over a Unix domain socket in the build.state directory
+ * and the daemon streams the output back, dispatching through the same {@link Manager}
+ * as a normal JSB run. Commands are handled one at a time, in the order they arrive.
+ */
+public class Daemon {
+
+    /** Commands the client hands to the daemon, the rest run in the client itself */
+    private static final Set<String> FORWARDED = Set.of("build", "package", "dep", "config", "cache");
+
+    /** Arguments a client sends to stop the daemon */
+    private static final List<String> STOP = List.of("daemon", "stop");
+
+    /**
+     * Returns the socket of the daemon of a project.
+     *
+     * @param config The configuration of the project
+     * @return The socket path in the build.state directory
+     */
+    public static Path socket(Config config) {
+        return config.path("build.state").resolve("daemon.sock");
+    }
+
+    /**
+     * Runs the daemon until it is stopped or was idle for daemon.idle minutes.
+     * Reloads the configuration whenever build.properties changed since the last command.
+     *
+     * @param config The configuration of the project, shared with the handlers
+     * @param manager The manager dispatching the commands
+     * @throws IOException If the socket cannot be created
+     */
+    public static void serve(Config config, Manager manager) throws IOException {
+        Path socket = socket(config);
+        Files.createDirectories(socket.getParent());
+        Files.deleteIfExists(socket);
+        long idleMillis = Long.parseLong(config.get("daemon.idle").trim()) * 60_000;
+        File properties = new File(config.getBaseDir(), "build.properties");
+        long loaded = properties.lastModified();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+
+        try (
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            Selector selector = Selector.open()
+        ) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            out.println("Daemon listening on " + socket + ", idle timeout " + config.get("daemon.idle") + " minute(s)");
+
+            while (true) {
+                if (selector.select(idleMillis) == 0) {
+                    out.println("Idle for " + config.get("daemon.idle") + " minute(s), stopping.");
+                    return;
+                }
+                selector.selectedKeys().clear();
+                SocketChannel client = server.accept();
+                if (client == null) continue;
+
+                try (client) {
+                    client.configureBlocking(true);
+                    List<String> args = readArgs(client);
+                    PrintStream response = new PrintStream(Channels.newOutputStream(client), true);
+                    if (args.equals(STOP)) {
+                        response.println("Daemon stopped.");
+                        return;
+                    }
+
+                    if (properties.lastModified() != loaded) {
+                        config.initConfig();
+                        loaded = properties.lastModified();
+                    }
+                    long start = System.nanoTime();
+                    System.setOut(response);
+                    System.setErr(response);
+                    Runner.setPipeOutput(true);
+                    try {
+                        manager.execute(args.toArray(new String[0]));
+                    } finally {
+                        Runner.setPipeOutput(false);
+                        System.setOut(out);
+                        System.setErr(err);
+                    }
+                    response.flush();
+                    // Loading build.properties rewrites it, which is not a change by the user
+                    loaded = properties.lastModified();
+                    out.println(String.join(" ", args) + " took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                } catch (EOFException e) {
+                    // Connected without sending a command, e.g. to check if the daemon is running
+                } catch (IOException e) {
+                    out.println("Lost a client, " + e.getMessage());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Hands a command line to the daemon of the project in the working directory, if one
+     * is running, and copies its output to System.out. Commands the daemon does not
+     * handle, such as run, dep classpath or anything with --watch or --offline, are left
+     * to the caller.
+     *
+     * @param args The command line given to JSB
+     * @return true if the daemon handled the command
+     */
+    public static boolean forward(String[] args) {
+        if (args.length == 0 || !FORWARDED.contains(args[0]) || List.of(args).contains("--watch")) return false;
+        // Offline holds for a whole process, the daemon serves every command
+        if (List.of(args).contains("--offline")) return false;
+        if (args[0].equals("cache") && args.length > 1 && args[1].equals("serve")) return false;
+        // The daemon sends stdout and stderr down one socket, the classpath must be alone on stdout
+        if (args[0].equals("dep") && args.length > 1 && args[1].equals("classpath")) return false;
+        Path socket = socket(new File("."));
+        if (socket == null || !Files.exists(socket)) return false;
+
+        try {
+            exchange(socket, List.of(args));
+            return true;
+        } catch (ConnectException e) {
+            // A daemon that crashed leaves its socket behind
+            System.out.println("The daemon is gone, running without it.");
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException ignored) {
+                // The next client will try again
+            }
+            return false;
+        } catch (IOException e) {
+            System.out.println("The daemon is not responding, running without it (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    /**
+     * Sends a command line to the daemon of a project and copies its output to System.out.
+     *
+     * @param config The configuration of the project
+     * @param args The command line
+     * @return true if a daemon was running
+     */
+    public static boolean send(Config config, List<String> args) {
+        if (!Files.exists(socket(config))) return false;
+        try {
+            exchange(socket(config), args);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the daemon of a project accepts connections.
+     *
+     * @param config The configuration of the project
+     * @return true if the daemon is running
+     */
+    public static boolean isRunning(Config config) {
+        Path socket = socket(config);
+        if (!Files.exists(socket)) return false;
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return channel.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the socket without loading the whole configuration, which would rewrite
+     * build.properties on every client call.
+     *
+     * @param baseDir The project directory
+     * @return The socket path, or null if the directory is not a JSB project
+     */
+    private static Path socket(File baseDir) {
+        File file = new File(baseDir, "build.properties");
+        if (!file.exists()) return null;
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        return baseDir.toPath().resolve(properties.getProperty("build.state", "./.jsb")).resolve("daemon.sock").normalize();
+    }
+
+    private static void exchange(Path socket, List<String> args) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            writeArgs(channel, args);
+            Channels.newInputStream(channel).transferTo(System.out);
+            System.out.flush();
+        }
+    }
+
+    private static void writeArgs(SocketChannel channel, List<String> args) throws IOException {
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+        out.writeInt(args.size());
+        for (String arg : args) out.writeUTF(arg);
+        out.flush();
+    }
+
+    private static List<String> readArgs(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+        int count = in.readInt();
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) args[i] = in.readUTF();
+        return List.of(args);
+    }
+}
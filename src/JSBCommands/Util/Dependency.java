@@ -19,23 +19,77 @@
 package JSBCommands.Util;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Handles Maven dependency management operations including downloading, adding, removing,
- * and checking dependencies.
+ * and checking dependencies. Dependencies are declared per scope: deps for compile,
+ * deps.runtime, deps.provided and deps.test, and each command takes the classpath it needs.
  */
 public class Dependency {
 
+    /**
+     * The classpaths dependencies are put on, by the scopes that put them there.
+     */
+    public enum Classpath {
+        /** What the sources are compiled against */
+        COMPILE("compile", "provided"),
+        /** What the program runs with, and what is packaged into the jar */
+        RUNTIME("compile", "runtime"),
+        /** What tests are compiled against and run with */
+        TEST("compile", "runtime", "provided", "test");
+
+        /** The scopes on this classpath */
+        private List<String> scopes;
+
+        Classpath(String... scopes) {
+            this.scopes = List.of(scopes);
+        }
+
+        /**
+         * @param scope A Maven scope
+         * @return true if artifacts of this scope are on this classpath
+         */
+        public boolean includes(String scope) {
+            return scopes.contains(scope);
+        }
+    }
+
+    /** The scopes dependencies can be declared in, in the order they are resolved */
+    public static final List<String> SCOPES = List.of("compile", "runtime", "provided", "test");
+
     private Config config;
-    private String BASE_URL = "https://repo1.maven.org/maven2/";
+    /** The artifacts resolved last, so a build resolves only once */
+    private List<Resolver.Artifact> resolved;
+    /** The key of the declared dependencies {@link #resolved} belongs to */
+    private String resolvedKey;
+    /** jsb.lock, if {@link #resolved} was taken from it */
+    private Lockfile locked;
+    /** The repository and its mirrors, kept so what is learned about them is shared by every request */
+    private Repositories repositories;
+    /** The settings {@link #repositories} was made for */
+    private String repositoriesKey;
+    /** Resolves SNAPSHOT versions, made again for every command so each checks them once */
+    private Snapshots snapshots;
+    /** The SNAPSHOT builds {@link #resolved} was resolved from */
+    private String resolvedSnapshots;
+    private static final String BASE_URL = "https://repo1.maven.org/maven2/";
 
     /**
      * Constructs a new Dependency manager with the specified configuration.
@@ -44,14 +98,22 @@ public class Dependency {
      */
     public Dependency(Config config) {
         this.config = config;
-        if (config.ready()) BASE_URL = config.get("repo.url");
     }
 
     /**
-     * Downloads a Maven dependency from the repository.
+     * @return The repository URL, read when needed since the configuration may
+     *         only be loaded after this manager is created
+     */
+    private String baseUrl() {
+        return config.ready() ? config.get("repo.url") : BASE_URL;
+    }
+
+    /**
+     * Downloads a Maven dependency from the repository into the artifact store,
+     * unless the store or a local repository already has it.
      * 
      * @param mavenString The Maven coordinate string in format "groupId:artifactId:version"
-     * @return The downloaded JAR file
+     * @return The JAR file in the artifact store, to be linked or copied, not moved
      * @throws IOException If there's an error downloading the file
      * @throws URISyntaxException If the Maven string cannot be converted to a valid URI
      * @throws IllegalArgumentException If the Maven string is null, empty or malformed
@@ -71,96 +133,427 @@ public class Dependency {
             );
         }
 
-        String groupID = parts[0].replace(".", "/");
-        String artifactID = parts[1];
-        String version = parts[2];
-        String jarFileName = artifactID + "-" + version + ".jar";
-        String path =
-            groupID + "/" + artifactID + "/" + version + "/" + jarFileName;
-
-        URL url = new URI(BASE_URL + path).toURL();
-        File outputFile = new File(jarFileName);
-
-        // Download and save the file
-        try (
-            InputStream in = url.openStream();
-            FileOutputStream out = new FileOutputStream(outputFile)
-        ) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
-        }
+        ArtifactStore store = this.store();
+        try {
+            // A SNAPSHOT is stored as its timestamped build, so a new build is a new artifact
+            String version = this.snapshots().version(mavenString, "jar");
+            String key = parts[0] + ":" + parts[1] + ":" + version;
+            String path = this.repositoryPath(mavenString, version);
+            Path stored = Snapshots.isSnapshot(key) ? null : store.find(key, null);
+            if (stored != null) return stored.toFile();
+            Path local = this.repositories().local(path);
+            if (local != null) return store.add(key, local, null).toFile();
 
-        return outputFile;
+            // Download and save the file
+            Path incoming = store.incoming(key);
+            Downloader downloader = new Downloader(1);
+            downloader.setChecksums(true);
+            downloader.setRepositories(this.repositories());
+            downloader.download(new URI(this.baseUrl() + path), incoming);
+            return store.put(key, incoming).toFile();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + mavenString, e);
+        } finally {
+            this.repositories().save();
+        }
     }
 
     /**
-     * Loads multiple dependencies into a local directory.
-     * Skips dependencies that are already present.
+     * Loads the declared dependencies of every scope and everything they need into dep.path.
+     * The transitive dependencies are taken from jsb.lock if it matches the declared
+     * dependencies, else resolved from the POM files, or taken from the graph saved
+     * by the last resolution if the declared dependencies didn't change.
+     * Skips dependencies that are already present. The others are downloaded at the
+     * same time, at most dep.concurrency at once, and if any of them fail, all
+     * failures are reported together once the rest are done.
      * 
-     * @param listOfDeps Array of Maven coordinate strings
-     * @param localPathString The local directory path to store dependencies
      * @throws Exception If there's an error during dependency loading
      */
-    public void loadDeps(String[] listOfDeps, String localPathString)
-        throws Exception {
-        for (String dep : listOfDeps) {
-            if (hasFile(dep)) continue;
-            System.out.println("Loading dependency: " + dep);
-            File depFile = this.get(dep);
-            File localPath = new File(localPathString);
-            if (!localPath.exists()) {
-                localPath.mkdirs();
+    public void loadDeps() throws Exception {
+        if (this.declared().isEmpty()) return;
+        snapshots = null;
+        this.download(this.resolve(true), config.path("dep.path").toString());
+    }
+
+    /**
+     * @param scope compile, runtime, provided or test
+     * @return The setting the dependencies of the scope are declared in
+     */
+    public static String setting(String scope) {
+        return scope.equals("compile") ? "deps" : "deps." + scope;
+    }
+
+    /**
+     * Writes jsb.lock with the resolved dependencies, their URLs, sizes and hashes.
+     * If jsb.lock already matches the declared dependencies, it is kept and the
+     * downloaded jars are checked against it instead.
+     *
+     * @param update Resolve again from the POM files and rewrite jsb.lock even if it matches
+     * @return The lockfile
+     * @throws Exception If resolving or downloading fails, or a jar does not match jsb.lock
+     */
+    public Lockfile lock(boolean update) throws Exception {
+        String key = this.graphKey(this.declared());
+        String localPathString = config.path("dep.path").toString();
+        Lockfile existing = Lockfile.read(this.lockFile());
+        resolvedKey = null;
+        snapshots = null;
+
+        if (!update && existing != null && existing.getInput().equals(key)) {
+            this.download(this.resolve(true), localPathString);
+            List<String> mismatches = new ArrayList<>();
+            for (Lockfile.Entry entry : existing.getEntries()) {
+                if (entry.sha256 == null) continue;
+                String actual = BuildState.hash(Files.readAllBytes(this.jarPath(entry.artifact.coordinates)));
+                if (!actual.equals(entry.sha256)) mismatches.add(entry.artifact.coordinates);
+            }
+            if (!mismatches.isEmpty()) {
+                throw new IOException(
+                    "Jars in " + localPathString + " do not match jsb.lock:\n  - " + String.join("\n  - ", mismatches)
+                );
+            }
+            System.out.println("jsb.lock is up to date, " + existing.getEntries().size() + " artifacts verified.");
+            return existing;
+        }
+
+        // Resolve from the POM files, not from the saved graph
+        if (update) Files.deleteIfExists(this.graphFile());
+        List<Resolver.Artifact> artifacts = this.resolve(false);
+        this.download(artifacts, localPathString);
+
+        List<Lockfile.Entry> entries = new ArrayList<>();
+        for (Resolver.Artifact artifact : artifacts) {
+            if (!artifact.jar) {
+                entries.add(new Lockfile.Entry(artifact, null, 0, null));
+                continue;
+            }
+            byte[] jar = Files.readAllBytes(this.jarPath(artifact.coordinates));
+            entries.add(new Lockfile.Entry(artifact, this.jarUri(artifact.coordinates).toString(), jar.length, BuildState.hash(jar)));
+        }
+        Lockfile lockfile = new Lockfile(key, entries);
+        lockfile.write(this.lockFile());
+        System.out.println("Wrote jsb.lock with " + entries.size() + " artifacts.");
+        return lockfile;
+    }
+
+    /**
+     * Links the jars of the artifacts that are not in the local directory yet from the
+     * artifact store, adding the ones the store doesn't have from a local repository, or
+     * downloading them into it first. Offline, every jar that would have to be downloaded
+     * is listed in the error before anything is done.
+     * When jsb.lock matches, jars are downloaded from the locked URL and must have the locked hash.
+     */
+    private void download(List<Resolver.Artifact> artifacts, String localPathString) throws Exception {
+        ArtifactStore store = this.store();
+        List<Downloader.Download> downloads = new ArrayList<>();
+        Map<Downloader.Download, Path> targets = new HashMap<>();
+        Map<ArtifactStore.Link, Integer> links = new EnumMap<>(ArtifactStore.Link.class);
+        for (Resolver.Artifact artifact : artifacts) {
+            String dep = artifact.coordinates;
+            // A SNAPSHOT in dep.path may be an older build, it is checked below
+            if (!artifact.jar || (!Snapshots.isSnapshot(dep) && hasFile(dep))) continue;
+            Lockfile.Entry entry = locked != null ? locked.get(dep) : null;
+            Path target = new File(localPathString, this.jarPath(dep).getFileName().toString()).toPath();
+            URI uri = entry != null && entry.url != null ? new URI(entry.url) : this.jarUri(dep);
+            String[] parts = dep.split(":");
+            String version = Snapshots.version(dep, uri);
+            String key = parts[0] + ":" + parts[1] + ":" + version;
+
+            // Without a timestamp, only the local repository knows if a SNAPSHOT is current
+            Path stored = Snapshots.isSnapshot(key) ? null : store.find(key, entry != null ? entry.sha256 : null);
+            Path local = stored == null ? this.repositories().local(this.repositoryPath(dep, version)) : null;
+            // A local jar with another hash than the locked one is downloaded instead
+            if (local != null) stored = store.add(key, local, entry != null ? entry.sha256 : null);
+            if (stored != null) {
+                if (Files.exists(target) && Files.isSameFile(target, stored)) continue;
+                links.merge(ArtifactStore.link(stored, target), 1, Integer::sum);
+                continue;
+            }
+
+            Downloader.Download download = new Downloader.Download(key, uri, store.incoming(key));
+            if (entry != null) download.sha256 = entry.sha256;
+            downloads.add(download);
+            targets.put(download, target);
+        }
+
+        if (Downloader.isOffline() && !downloads.isEmpty()) {
+            List<String> missing = new ArrayList<>();
+            for (Downloader.Download download : downloads) missing.add(download.name);
+            throw new IOException(
+                "Offline, " + missing.size() + " jar(s) are neither in the artifact store nor in a local repository:\n  - " +
+                String.join("\n  - ", missing)
+            );
+        }
+
+        IOException failed = null;
+        if (!downloads.isEmpty()) {
+            try {
+                Downloader downloader = new Downloader(this.concurrency());
+                downloader.setChecksums(true);
+                downloader.setRepositories(this.repositories());
+                downloader.downloadAll(downloads);
+            } catch (IOException e) {
+                failed = e;
+            }
+            Repositories repositories = this.repositories();
+            repositories.save();
+            if (repositories.getRemote().size() > 1) System.out.println("Repositories: " + repositories.describe());
+        }
+        if (this.snapshots().summary() != null) System.out.println(this.snapshots().summary());
+        // The jars that did arrive are kept, even if others failed
+        for (Downloader.Download download : downloads) {
+            // Another process may have stored the same jar while this one downloaded it
+            Path stored = Files.exists(download.target)
+                ? store.put(download.name, download.target)
+                : store.find(download.name, download.sha256);
+            if (stored != null) links.merge(ArtifactStore.link(stored, targets.get(download)), 1, Integer::sum);
+        }
+        if (!links.isEmpty()) {
+            List<String> counts = new ArrayList<>();
+            for (Map.Entry<ArtifactStore.Link, Integer> link : links.entrySet()) {
+                counts.add(link.getValue() + " " + link.getKey());
+            }
+            System.out.println(
+                "Linked jars from the artifact store in " + store.getDir() + ": " + String.join(", ", counts)
+            );
+        }
+        if (failed != null) throw failed;
+    }
+
+    /**
+     * @return The repository and its mirrors (repo.url and repo.mirrors) and the local
+     *         Maven repository (repo.local), made again only when those settings change,
+     *         with their health saved in dep.store
+     * @throws IOException If the saved health cannot be read
+     */
+    private Repositories repositories() throws IOException {
+        List<String> urls = declared(config.ready() ? config.get("repo.mirrors").split(",") : new String[0]);
+        urls.add(this.baseUrl());
+        if (config.ready() && !config.get("repo.local").isBlank()) {
+            urls.add(0, config.path("repo.local").toAbsolutePath().toUri().toString());
+        }
+        String delay = config.ready() ? config.get("repo.hedge.delay").trim() : "1000";
+        String key = String.join(",", urls) + " " + delay;
+        if (!key.equals(repositoriesKey)) {
+            repositories = new Repositories(
+                urls,
+                config.path("dep.store").resolve("repositories.properties"),
+                Duration.ofMillis(Long.parseLong(delay))
+            );
+            repositoriesKey = key;
+        }
+        return repositories;
+    }
+
+    /**
+     * @return Resolves SNAPSHOT versions to the newest timestamped builds, checking each
+     *         at most once per command and dep.snapshot.interval
+     * @throws IOException If the repositories cannot be set up
+     */
+    private Snapshots snapshots() throws IOException {
+        if (snapshots == null) {
+            long minutes = config.ready() ? Long.parseLong(config.get("dep.snapshot.interval").trim()) : 1440;
+            snapshots = new Snapshots(
+                config.path("dep.store").resolve("snapshots"),
+                Duration.ofMinutes(minutes),
+                this.baseUrl(),
+                this.repositories()
+            );
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return The artifact store shared by every project of the user (dep.store)
+     */
+    public ArtifactStore store() {
+        return new ArtifactStore(
+            config.path("dep.store"),
+            Long.parseLong(config.get("dep.store.size").trim()) * 1024 * 1024
+        );
+    }
+
+    /**
+     * Resolves the declared dependencies and their transitive dependencies.
+     * If jsb.lock was made for the same declared dependencies and repository, it is
+     * trusted as is. Otherwise the resolved graph is saved in build.state under a hash of
+     * the declared dependencies and the repository, so it is only resolved again when
+     * those change.
+     *
+     * @return The resolved artifacts with their scopes, nearest first, starting with the declared ones
+     * @throws Exception If a POM cannot be downloaded or parsed
+     */
+    public List<Resolver.Artifact> resolve() throws Exception {
+        return this.resolve(true);
+    }
+
+    private List<Resolver.Artifact> resolve(boolean useLock) throws Exception {
+        Map<String, String> declared = this.declared();
+        String key = this.graphKey(declared);
+        if (key.equals(resolvedKey) && (locked != null || this.snapshotState(resolved).equals(resolvedSnapshots))) {
+            return resolved;
+        }
+
+        long start = System.nanoTime();
+        locked = null;
+        Lockfile lockfile = Lockfile.read(this.lockFile());
+        if (lockfile != null && lockfile.getInput().equals(key) && useLock) {
+            locked = lockfile;
+            resolvedKey = key;
+            resolved = lockfile.artifacts();
+            if (!declared.isEmpty()) {
+                System.out.println(
+                    "Using " + resolved.size() + " locked dependencies from jsb.lock (" +
+                    (System.nanoTime() - start) / 1_000_000 + " ms)"
+                );
+            }
+            return resolved;
+        }
+        if (lockfile != null && useLock) {
+            System.out.println("jsb.lock does not match deps in build.properties, run jsb dep lock --update to update it.");
+        }
+
+        List<Resolver.Artifact> artifacts = Resolver.read(this.graphFile(), key);
+        Path snapshotFile = this.graphFile().resolveSibling("dependencies.snapshots");
+        String saved = Files.isRegularFile(snapshotFile) ? Files.readString(snapshotFile, StandardCharsets.UTF_8) : "";
+        if (artifacts != null && !this.snapshotState(artifacts).equals(saved)) {
+            System.out.println("New SNAPSHOT builds, resolving the dependencies again.");
+            artifacts = null;
+        }
+        boolean cached = artifacts != null;
+        Resolver resolver = null;
+        if (!cached) {
+            resolver = new Resolver(
+                this.baseUrl(),
+                config.path("dep.path").resolve("poms"),
+                this.concurrency()
+            );
+            resolver.setRepositories(this.repositories());
+            resolver.setSnapshots(this.snapshots());
+            try {
+                artifacts = resolver.resolve(declared);
+            } finally {
+                this.repositories().save();
             }
-            File newFile = new File(localPath, depFile.getName());
-            depFile.renameTo(newFile);
-            System.out.println("Finished loading dependency: " + dep);
+            Resolver.write(this.graphFile(), key, artifacts);
+            Files.writeString(snapshotFile, this.snapshotState(artifacts), StandardCharsets.UTF_8);
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (!declared.isEmpty()) {
+            int depth = 0;
+            for (Resolver.Artifact artifact : artifacts) depth = Math.max(depth, artifact.depth);
+            System.out.println(
+                "Resolved " + artifacts.size() + " dependencies (" + declared.size() + " declared, " +
+                (artifacts.size() - declared.size()) + " transitive, depth " + depth + ") in " + millis + " ms" +
+                (cached ? " from the saved graph" : ", parsed " + resolver.getParsed() + " POM file(s)")
+            );
         }
+        resolvedKey = key;
+        resolved = artifacts;
+        resolvedSnapshots = this.snapshotState(artifacts);
+        return artifacts;
     }
 
     /**
-     * Adds a new dependency to the configuration.
+     * @return The timestamped builds of the SNAPSHOTs among the artifacts, whose POMs
+     *         decide what they need, empty if there are none
+     */
+    private String snapshotState(List<Resolver.Artifact> artifacts) throws Exception {
+        StringBuilder state = new StringBuilder();
+        for (Resolver.Artifact artifact : artifacts) {
+            if (!Snapshots.isSnapshot(artifact.coordinates)) continue;
+            String version = this.snapshots().version(artifact.coordinates, "pom");
+            state.append(artifact.coordinates).append(' ').append(version).append('\n');
+        }
+        return state.toString();
+    }
+
+    /**
+     * Adds a new dependency to the configuration. A dependency already declared in
+     * another scope is moved to this one.
      * 
      * @param mavenString The Maven coordinate string to add
+     * @param scope compile, runtime, provided or test
      */
-    public void add(String mavenString) {
+    public void add(String mavenString, String scope) {
+        this.remove(mavenString);
         List<String> depList = new ArrayList<>();
-        if (config.get("deps") != null) {
-            String[] currentDepList = config.get("deps").split(",");
+        if (config.get(setting(scope)) != null) {
+            String[] currentDepList = config.get(setting(scope)).split(",");
             for (String dep : currentDepList) {
-                depList.add(dep);
+                if (!dep.isBlank()) depList.add(dep);
             }
         }
 
         depList.add(mavenString);
         String newDeps = String.join(",", depList);
-        config.set("deps", newDeps);
+        config.set(setting(scope), newDeps);
     }
 
     /**
-     * Lists all downloaded dependency files.
+     * Lists all downloaded dependency files of every scope, including the transitive
+     * ones if the declared dependencies were resolved before. Never goes to the network.
      * 
      * @return ArrayList of File objects representing the downloaded dependencies
      */
     public ArrayList<File> listAll() {
-        //Should be like this lib/dep1.jar, lib/dep2.jar, lib/dep3.jar
+        return new ArrayList<>(this.listScopes().keySet());
+    }
+
+    /**
+     * Lists the downloaded dependency files on one classpath, in resolution order.
+     * Never goes to the network.
+     *
+     * @param classpath The classpath, e.g. {@link Classpath#RUNTIME} to run the program
+     * @return The jars on the classpath
+     */
+    public ArrayList<File> list(Classpath classpath) {
         ArrayList<File> depFiles = new ArrayList<>();
-        if (config.get("deps") != null) {
-            String[] currentDepList = config.get("deps").split(",");
-            for (String dep : currentDepList) {
-                String[] parts = dep.split(":");
-                if (parts.length == 3) {
-                    String artifactID = parts[1];
-                    String version = parts[2];
-                    String jarFileName = artifactID + "-" + version + ".jar";
-                    File depFile = new File(
-                        config.get("dep.path") + "/" + jarFileName
-                    );
-                    if (depFile.exists()) {
-                        depFiles.add(depFile);
-                    }
+        for (Map.Entry<File, String> jar : this.listScopes().entrySet()) {
+            if (classpath.includes(jar.getValue())) depFiles.add(jar.getKey());
+        }
+        return depFiles;
+    }
+
+    /**
+     * Lists all downloaded dependency files with their scopes, including the transitive
+     * ones if the declared dependencies were resolved before. Never goes to the network.
+     *
+     * @return The jars in dep.path with their scopes, in resolution order
+     */
+    public Map<File, String> listScopes() {
+        //Should be like this lib/dep1.jar, lib/dep2.jar, lib/dep3.jar
+        Map<File, String> depFiles = new LinkedHashMap<>();
+        Map<String, String> currentDeps = this.declared();
+        if (currentDeps.isEmpty()) return depFiles;
+
+        String key = this.graphKey(currentDeps);
+        List<Resolver.Artifact> artifacts = Resolver.read(this.graphFile(), key);
+        try {
+            Lockfile lockfile = Lockfile.read(this.lockFile());
+            if (lockfile != null && lockfile.getInput().equals(key)) artifacts = lockfile.artifacts();
+        } catch (IOException e) {
+            System.out.println("Could not read jsb.lock: " + e.getMessage());
+        }
+        if (artifacts != null) {
+            currentDeps = new LinkedHashMap<>();
+            for (Resolver.Artifact artifact : artifacts) {
+                if (artifact.jar) currentDeps.put(artifact.coordinates, artifact.scope);
+            }
+        }
+        for (Map.Entry<String, String> dep : currentDeps.entrySet()) {
+            String[] parts = dep.getKey().split(":");
+            if (parts.length == 3) {
+                String artifactID = parts[1];
+                String version = parts[2];
+                String jarFileName = artifactID + "-" + version + ".jar";
+                File depFile = new File(
+                    config.path("dep.path").toFile(), jarFileName
+                );
+                if (depFile.exists()) {
+                    depFiles.putIfAbsent(depFile, dep.getValue());
                 }
             }
         }
@@ -168,23 +561,65 @@ public class Dependency {
     }
 
     /**
-     * Removes a dependency from the configuration.
+     * Removes a dependency from the configuration, in whatever scope it is declared.
+     * Only the declared dependencies are looked at, so this works offline.
      * 
      * @param mavenString The Maven coordinate string to remove
+     * @return true if the dependency was declared and is removed, false otherwise
      */
-    public void remove(String mavenString) {
-        List<String> depList = new ArrayList<>();
-        if (config.get("deps") != null) {
-            String[] currentDepList = config.get("deps").split(",");
+    public boolean remove(String mavenString) {
+        boolean removed = false;
+        for (String scope : SCOPES) {
+            if (config.get(setting(scope)) == null) continue;
+            List<String> depList = new ArrayList<>();
+            String[] currentDepList = config.get(setting(scope)).split(",");
             for (String dep : currentDepList) {
-                if (!dep.equals(mavenString)) {
+                if (!dep.trim().equals(mavenString.trim())) {
                     depList.add(dep);
                 }
             }
+            if (depList.size() == currentDepList.length) continue;
+
+            String newDeps = String.join(",", depList);
+            config.set(setting(scope), newDeps);
+            removed = true;
         }
+        return removed;
+    }
 
-        String newDeps = String.join(",", depList);
-        config.set("deps", newDeps);
+    /**
+     * Deletes the jars in dep.path that no resolved dependency of any scope needs, such as
+     * removed dependencies or older versions. They are not on any classpath anymore, but
+     * take space and confuse anyone looking at dep.path. The artifact store keeps its copy.
+     *
+     * @return The deleted jars and their total size in bytes
+     * @throws Exception If the dependencies cannot be resolved or a jar cannot be deleted
+     */
+    public Map<File, Long> prune() throws Exception {
+        Set<String> needed = new HashSet<>();
+        if (!this.declared().isEmpty()) {
+            for (Resolver.Artifact artifact : this.resolve(true)) {
+                if (artifact.jar) needed.add(this.jarPath(artifact.coordinates).getFileName().toString());
+            }
+        }
+
+        Map<File, Long> pruned = new LinkedHashMap<>();
+        Path depPath = config.path("dep.path");
+        if (!Files.isDirectory(depPath)) return pruned;
+        List<Path> jars;
+        try (Stream<Path> files = Files.list(depPath)) {
+            jars = files
+                .filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".jar"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        for (Path jar : jars) {
+            if (needed.contains(jar.getFileName().toString())) continue;
+            long size = Files.size(jar);
+            Files.delete(jar);
+            pruned.put(jar.toFile(), size);
+        }
+        return pruned;
     }
 
     /**
@@ -201,7 +636,7 @@ public class Dependency {
         String artifactID = parts[1];
         String version = parts[2];
         String jarFileName = artifactID + "-" + version + ".jar";
-        File depFile = new File(config.get("dep.path") + "/" + jarFileName);
+        File depFile = new File(config.path("dep.path").toFile(), jarFileName);
         return depFile.exists();
     }
 
@@ -210,31 +645,136 @@ public class Dependency {
      * 
      * @param mavenString The Maven coordinate string to check
      * @return true if the dependency exists in the repository, false otherwise
+     * @throws Exception If the metadata cache cannot be read or written
      */
-    public boolean doesExist(String mavenString) {
-        String[] parts = mavenString.split(":");
-        if (parts.length != 3) {
-            return false;
+    public boolean doesExist(String mavenString) throws Exception {
+        return this.doesExist(List.of(mavenString)).get(mavenString);
+    }
+
+    /**
+     * Checks if dependencies exist in the remote repository, all at once. Jars in the
+     * artifact store or a local repository exist without asking, the rest is answered by
+     * the metadata cache or checked with HEAD requests at the same time.
+     *
+     * @param mavenStrings The Maven coordinate strings to check
+     * @return Whether each dependency exists, in the order given
+     * @throws Exception If the metadata cache cannot be read or written
+     */
+    public Map<String, Boolean> doesExist(List<String> mavenStrings) throws Exception {
+        Map<String, Boolean> exists = new LinkedHashMap<>();
+        Map<String, URI> unknown = new LinkedHashMap<>();
+        snapshots = null;
+        ArtifactStore store = this.store();
+        for (String mavenString : mavenStrings) {
+            if (mavenString.split(":").length != 3) {
+                exists.put(mavenString, false);
+            } else if (
+                store.find(mavenString, null) != null ||
+                this.repositories().local(
+                    this.repositoryPath(mavenString, this.snapshots().version(mavenString, "jar"))
+                ) != null
+            ) {
+                exists.put(mavenString, true);
+            } else {
+                exists.put(mavenString, false);
+                unknown.put(mavenString, this.jarUri(mavenString));
+            }
         }
-        String artifactID = parts[1];
-        String version = parts[2];
-        String jarFileName = artifactID + "-" + version + ".jar";
-        //Test if http request is successful
+        if (unknown.isEmpty()) return exists;
+
+        MetadataCache cache = new MetadataCache(
+            config.path("dep.store").resolve("metadata.properties"),
+            Duration.ofMinutes(Long.parseLong(config.get("dep.check.ttl").trim())),
+            Duration.ofMinutes(Long.parseLong(config.get("dep.check.ttl.missing").trim())),
+            this.repositories()
+        );
+        Map<URI, Boolean> checked;
         try {
-            URL url = new URI(
-                BASE_URL +
-                parts[0].replace(".", "/") +
-                "/" +
-                artifactID +
-                "/" +
-                version +
-                "/" +
-                jarFileName
-            ).toURL();
-            url.openStream().close();
-            return true;
-        } catch (Exception e) {
-            return false;
+            checked = cache.exists(new ArrayList<>(unknown.values()), this.concurrency());
+        } finally {
+            this.repositories().save();
+        }
+        for (Map.Entry<String, URI> entry : unknown.entrySet()) {
+            exists.put(entry.getKey(), checked.get(entry.getValue()));
+        }
+        return exists;
+    }
+
+    private static List<String> declared(String[] listOfDeps) {
+        List<String> declared = new ArrayList<>();
+        for (String dep : listOfDeps) {
+            if (!dep.isBlank()) declared.add(dep.trim());
+        }
+        return declared;
+    }
+
+    /**
+     * @return The declared dependencies with their scopes, compile ones first. A
+     *         dependency declared in several scopes keeps the first.
+     */
+    private Map<String, String> declared() {
+        Map<String, String> declared = new LinkedHashMap<>();
+        for (String scope : SCOPES) {
+            String deps = config.get(setting(scope));
+            if (deps == null) continue;
+            for (String dep : declared(deps.split(","))) declared.putIfAbsent(dep, scope);
+        }
+        return declared;
+    }
+
+    /**
+     * @return The key the resolved graph of these dependencies is saved under
+     */
+    private String graphKey(Map<String, String> declared) {
+        StringBuilder input = new StringBuilder("1\n").append(this.baseUrl()).append('\n');
+        List<String> compile = new ArrayList<>();
+        for (Map.Entry<String, String> dep : declared.entrySet()) {
+            if (dep.getValue().equals("compile")) compile.add(dep.getKey());
         }
+        // Only compile dependencies give the same key as before scopes, so jsb.lock stays valid
+        input.append(String.join(",", compile));
+        for (String scope : SCOPES.subList(1, SCOPES.size())) {
+            List<String> deps = new ArrayList<>();
+            for (Map.Entry<String, String> dep : declared.entrySet()) {
+                if (dep.getValue().equals(scope)) deps.add(dep.getKey());
+            }
+            if (!deps.isEmpty()) input.append('\n').append(scope).append(' ').append(String.join(",", deps));
+        }
+        return BuildState.hash(input.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path graphFile() {
+        return config.path("build.state").resolve("dependencies.graph");
+    }
+
+    private Path lockFile() {
+        return config.getBaseDir().toPath().resolve("jsb.lock");
+    }
+
+    private Path jarPath(String coordinates) {
+        String[] parts = coordinates.split(":");
+        return config.path("dep.path").resolve(parts[1] + "-" + parts[2] + ".jar");
+    }
+
+    /**
+     * @return Where the jar is in the repository, the newest build for a SNAPSHOT
+     */
+    private URI jarUri(String coordinates) throws IOException, InterruptedException {
+        String version = this.snapshots().version(coordinates, "jar");
+        return URI.create(this.baseUrl() + this.repositoryPath(coordinates, version));
+    }
+
+    /**
+     * @param version The version in the file name, a timestamped build for a SNAPSHOT
+     * @return The path of the jar in a repository, e.g. org/json/json/1/json-1.jar
+     */
+    private String repositoryPath(String coordinates, String version) {
+        String[] parts = coordinates.split(":");
+        String jarFileName = parts[1] + "-" + version + ".jar";
+        return parts[0].replace(".", "/") + "/" + parts[1] + "/" + parts[2] + "/" + jarFileName;
+    }
+
+    private int concurrency() {
+        return config.ready() ? Integer.parseInt(config.get("dep.concurrency").trim()) : 8;
     }
 }
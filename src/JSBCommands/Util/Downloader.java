@@ -0,0 +1,394 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Downloads files over one shared HTTP client, so connections (and HTTP/2 streams)
+ * to a repository are reused. Many files are downloaded at the same time on virtual
+ * threads, at most a given number at once, with progress printed as each one finishes.
+ */
+public class Downloader {
+
+    /**
+     * A file to download.
+     */
+    public static class Download {
+        /** What is downloaded, e.g. the Maven coordinates, used in messages */
+        public String name;
+        /** Where to download it from */
+        public URI uri;
+        /** Where to save it, only written once the download is complete */
+        public Path target;
+        /** The SHA-256 hash the file must have, e.g. from jsb.lock, null to accept any */
+        public String sha256;
+
+        /**
+         * @param name What is downloaded, used in messages
+         * @param uri Where to download it from
+         * @param target Where to save it
+         */
+        public Download(String name, URI uri, Path target) {
+            this.name = name;
+            this.uri = uri;
+            this.target = target;
+        }
+    }
+
+    /** Time limit for connecting, and for the response headers to arrive */
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    /** Size of the buffer the body is copied through */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** HTTP client shared by every download, so connections are reused */
+    private static HttpClient client;
+
+    /** Whether this process must not use the network at all, set by --offline */
+    private static volatile boolean offline;
+
+    /** .part files being written by this process, other processes are kept out with file locks */
+    private static final Map<Path, ReentrantLock> PARTS = new ConcurrentHashMap<>();
+
+    /** The most downloads running at the same time */
+    private int concurrency;
+    /** Whether downloads are checked against the .sha1 or .sha256 files in the repository */
+    private boolean checksums;
+    /** The repository and mirrors requests are spread over, null to send them as they are */
+    private Repositories repositories;
+
+    /**
+     * @param concurrency The most downloads running at the same time
+     */
+    public Downloader(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Downloads all files, at most the concurrency limit at once. A failed download does
+     * not stop the others, all failures are reported together at the end.
+     *
+     * @param downloads The files to download
+     * @throws IOException If any download failed, listing every failure
+     */
+    public void downloadAll(List<Download> downloads) throws IOException {
+        if (downloads.isEmpty()) return;
+        long start = System.nanoTime();
+        AtomicLong bytes = new AtomicLong();
+        AtomicInteger done = new AtomicInteger();
+        List<String> failures = new ArrayList<>();
+        Semaphore permits = new Semaphore(concurrency);
+
+        System.out.println(
+            "Downloading " + downloads.size() + " file(s), " + Math.min(concurrency, downloads.size()) + " at a time ..."
+        );
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Download download : downloads) {
+                executor.submit(() -> {
+                    try {
+                        permits.acquire();
+                        long size;
+                        try {
+                            size = this.download(download.uri, download.target, download.sha256);
+                        } finally {
+                            permits.release();
+                        }
+                        // Counting and printing together keeps the progress lines in order
+                        synchronized (failures) {
+                            System.out.println(
+                                String.format(
+                                    "[%d/%d] %s (%s), %s so far",
+                                    done.incrementAndGet(),
+                                    downloads.size(),
+                                    download.name,
+                                    size(size),
+                                    size(bytes.addAndGet(size))
+                                )
+                            );
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        synchronized (failures) {
+                            failures.add(download.name + ": " + e.getMessage());
+                            System.out.println(
+                                String.format("[%d/%d] %s failed", done.incrementAndGet(), downloads.size(), download.name)
+                            );
+                        }
+                    }
+                });
+            }
+        }
+
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 0.001);
+        System.out.println(
+            String.format(
+                Locale.ROOT,
+                "Downloaded %d of %d file(s), %s in %.1f s (%s/s)",
+                downloads.size() - failures.size(),
+                downloads.size(),
+                size(bytes.get()),
+                seconds,
+                size((long) (bytes.get() / seconds))
+            )
+        );
+        if (!failures.isEmpty()) {
+            throw new IOException(
+                "Could not download " + failures.size() + " file(s):\n  - " + String.join("\n  - ", failures)
+            );
+        }
+    }
+
+    /**
+     * Downloads one file. It is written to a .part file next to the target first and
+     * moved into place once complete, so an interrupted download never leaves a truncated
+     * file behind, and the next attempt resumes it with an HTTP range request.
+     *
+     * @param uri Where to download the file from
+     * @param target Where to save it
+     * @return The size of the file in bytes
+     * @throws IOException If the server does not answer 200 or the file cannot be written
+     * @throws InterruptedException If the download is interrupted
+     */
+    public long download(URI uri, Path target) throws IOException, InterruptedException {
+        return this.download(uri, target, null);
+    }
+
+    /**
+     * Downloads one file and checks its SHA-256 hash, and the .sha1 or .sha256 file the
+     * repository has next to it if checksums are enabled, before moving it into place.
+     * The hashes are computed while the file is written. A file that fails a check is
+     * deleted, a file that is only cut off is kept as .part to be resumed.
+     *
+     * @param uri Where to download the file from
+     * @param target Where to save it
+     * @param sha256 The hash the file must have, null to accept any
+     * @return The size of the file in bytes
+     * @throws IOException If the download fails or a hash does not match, or when offline
+     * @throws InterruptedException If the download is interrupted
+     */
+    public long download(URI uri, Path target, String sha256) throws IOException, InterruptedException {
+        if (offline) throw new IOException("Offline, not downloading " + uri);
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        Files.createDirectories(part.toAbsolutePath().getParent());
+        String[] expected = checksums ? this.checksum(uri) : null;
+
+        ReentrantLock local = PARTS.computeIfAbsent(part.toAbsolutePath(), key -> new ReentrantLock());
+        local.lock();
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Another JSB process may be downloading the same file, wait for it
+            FileLock lock = channel.lock();
+            try {
+                if (!Files.exists(part)) {
+                    // It finished and moved the file away while we waited, start a new one
+                    return this.download(uri, target, sha256);
+                }
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                MessageDigest sha256Digest = BuildState.digest();
+                long size = this.transfer(uri, channel, sha1, sha256Digest);
+
+                String actualSha256 = BuildState.hex(sha256Digest.digest());
+                String actualSha1 = BuildState.hex(sha1.digest());
+                String mismatch = null;
+                if (sha256 != null && !sha256.equals(actualSha256)) {
+                    mismatch = "SHA-256 of " + uri + " is " + actualSha256 + ", expected " + sha256;
+                } else if (expected != null && expected[0].equals("SHA-1") && !expected[1].equals(actualSha1)) {
+                    mismatch = "SHA-1 of " + uri + " is " + actualSha1 + ", the repository says " + expected[1];
+                } else if (expected != null && expected[0].equals("SHA-256") && !expected[1].equals(actualSha256)) {
+                    mismatch = "SHA-256 of " + uri + " is " + actualSha256 + ", the repository says " + expected[1];
+                }
+                if (mismatch != null) {
+                    Files.deleteIfExists(part);
+                    throw new IOException(mismatch);
+                }
+                channel.force(false);
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return size;
+            } finally {
+                if (lock.isValid()) lock.release();
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        } finally {
+            local.unlock();
+        }
+    }
+
+    /**
+     * Downloads into a .part file, resuming after what it already holds if the server
+     * supports range requests. The digests are fed every byte of the file, including
+     * the bytes downloaded before.
+     *
+     * @return The size of the complete file
+     */
+    private long transfer(URI uri, FileChannel channel, MessageDigest... digests) throws IOException, InterruptedException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long have = channel.size();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(TIMEOUT).GET();
+        if (have > 0) builder.header("Range", "bytes=" + have + "-");
+        HttpResponse<InputStream> response = this.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+
+        int status = response.statusCode();
+        if (status == 416 && have > 0) {
+            // The .part is no prefix of the file anymore, start over
+            response.body().close();
+            channel.truncate(0);
+            return this.transfer(uri, channel, digests);
+        }
+
+        try (ReadableByteChannel body = Channels.newChannel(response.body())) {
+            String range = response.headers().firstValue("Content-Range").orElse("");
+            if (status == 206 && range.startsWith("bytes " + have + "-")) {
+                System.out.println("Resuming " + response.uri() + " after " + size(have));
+                channel.position(0);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    for (MessageDigest digest : digests) digest.update(buffer.duplicate());
+                    buffer.clear();
+                }
+            } else if (status == 200) {
+                channel.truncate(0);
+                have = 0;
+            } else {
+                throw new IOException("HTTP " + status + " from " + response.uri());
+            }
+
+            long size = have;
+            buffer.clear();
+            while (body.read(buffer) != -1) {
+                buffer.flip();
+                for (MessageDigest digest : digests) digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) size += channel.write(buffer);
+                buffer.clear();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Fetches the checksum the repository publishes next to a file, preferring .sha1,
+     * which every Maven repository has, over .sha256.
+     *
+     * @return The algorithm and the hash, or null if the repository has neither
+     */
+    private String[] checksum(URI uri) throws IOException, InterruptedException {
+        for (String[] sidecar : new String[][] { { ".sha1", "SHA-1" }, { ".sha256", "SHA-256" } }) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(uri + sidecar[0])).timeout(TIMEOUT).GET().build();
+            HttpResponse<String> response = this.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 404) continue;
+            if (response.statusCode() != 200) {
+                throw new IOException("HTTP " + response.statusCode() + " from " + response.uri());
+            }
+            // Some repositories add the file name after the hash
+            String[] fields = response.body().trim().split("\\s+");
+            if (fields.length > 0 && !fields[0].isEmpty()) {
+                return new String[] { sidecar[1], fields[0].toLowerCase(Locale.ROOT) };
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param checksums Check downloads against the .sha1 or .sha256 files in the repository
+     */
+    public void setChecksums(boolean checksums) {
+        this.checksums = checksums;
+    }
+
+    /**
+     * @param repositories The repository and mirrors to spread requests into them over,
+     *                     null to send requests as they are
+     */
+    public void setRepositories(Repositories repositories) {
+        this.repositories = repositories;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+        throws IOException, InterruptedException {
+        return repositories != null ? repositories.send(request, handler) : client().send(request, handler);
+    }
+
+    /**
+     * @param offline Forbid any network access in this process, every request fails
+     */
+    public static void setOffline(boolean offline) {
+        Downloader.offline = offline;
+    }
+
+    /**
+     * @return Whether this process must not use the network
+     */
+    public static boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * @return The HTTP client shared by every download, created on first use
+     * @throws IllegalStateException When offline, so no request can slip through
+     */
+    public static synchronized HttpClient client() {
+        if (offline) throw new IllegalStateException("Offline, no network access allowed");
+        if (client == null) {
+            client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(TIMEOUT)
+                .build();
+        }
+        return client;
+    }
+
+    /**
+     * Formats a number of bytes for people, e.g. 1.5 MB.
+     *
+     * @param bytes The number of bytes
+     * @return The formatted size
+     */
+    public static String size(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of a directory tree, recording the size, modification time and optionally
+ * the content hash of the files it tracks, persisted between JSB runs.
+ * Refreshing it only lists directories whose modification time changed, since a directory
+ * only changes when entries are added, removed or renamed. In unchanged directories only
+ * the tracked files are checked for changes, without reading them, so files the index
+ * does not track, such as non-Java files in code.path, cost nothing after the first scan.
+ * Directories are scanned in parallel.
+ */
+public class FileIndex {
+
+    /** Files modified this recently may still change within the same timestamp */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** The directory tree this index covers */
+    private Path root;
+    /** The file the index is stored in */
+    private File file;
+    /** File name suffix of the tracked files, empty to track every file */
+    private String suffix;
+    /** Snapshot of every tracked file, by path relative to the root */
+    private Map<String, Entry> files = new HashMap<>();
+    /** Modification time of every directory, by path relative to the root */
+    private Map<String, Long> directories = new HashMap<>();
+    /** Whether the index was loaded from its file */
+    private boolean loaded = false;
+
+    /**
+     * One file of the snapshot.
+     */
+    private static class Entry {
+        /** The file, resolved against the root */
+        Path path;
+        /** Size in bytes */
+        long size;
+        /** Modification time in nanoseconds */
+        long modified;
+        /** Content hash, or null if not computed yet */
+        String hash;
+
+        Entry(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean sameAs(Entry other) {
+            return other != null && size == other.size && modified == other.modified;
+        }
+    }
+
+    /**
+     * Files that were added, changed or removed since the previous snapshot.
+     */
+    public static class Changes {
+        /** Files that did not exist in the previous snapshot */
+        public final Set<Path> added = new TreeSet<>();
+        /** Files whose size or modification time changed */
+        public final Set<Path> changed = new TreeSet<>();
+        /** Files that no longer exist */
+        public final Set<Path> removed = new TreeSet<>();
+
+        /**
+         * @return true if no file was added, changed or removed
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d added, %d changed, %d removed", added.size(), changed.size(), removed.size());
+        }
+    }
+
+    /**
+     * Creates an index of a directory tree.
+     *
+     * @param root The directory tree to index, which may not exist yet
+     * @param file The file to store the index in
+     * @param suffix File name suffix of the files to track, such as .java, or empty for all files
+     */
+    public FileIndex(Path root, File file, String suffix) {
+        this.root = root;
+        this.file = file;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Creates the index of a directory setting of a project, stored in its build.state directory.
+     *
+     * @param config The configuration of the project
+     * @param key The setting holding the directory, such as code.path
+     * @param suffix File name suffix of the files to track, or empty for all files
+     * @return The index, not refreshed yet
+     */
+    public static FileIndex of(Config config, String key, String suffix) {
+        return new FileIndex(
+            config.path(key),
+            new File(config.path("build.state").toFile(), key + ".index"),
+            suffix
+        );
+    }
+
+    /**
+     * @return The directory tree this index covers
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Scans the tree and replaces the snapshot. The first refresh loads the previous
+     * snapshot from the index file, so changes are reported across JSB runs.
+     *
+     * @return The tracked files that changed since the previous snapshot
+     * @throws IOException If the tree cannot be scanned
+     */
+    public Changes refresh() throws IOException {
+        if (!loaded) this.load();
+
+        Map<String, List<String>> knownFiles = new HashMap<>();
+        for (String path : files.keySet()) {
+            knownFiles.computeIfAbsent(parent(path), key -> new ArrayList<>()).add(path);
+        }
+        Map<String, List<String>> knownDirectories = new HashMap<>();
+        for (String directory : directories.keySet()) {
+            if (!directory.isEmpty()) {
+                knownDirectories.computeIfAbsent(parent(directory), key -> new ArrayList<>()).add(directory);
+            }
+        }
+
+        Scan scan = new Scan("", knownFiles, knownDirectories, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        if (Files.isDirectory(root)) {
+            ForkJoinPool pool = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+            try {
+                pool.invoke(scan);
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        Changes changes = new Changes();
+        for (Map.Entry<String, Entry> scanned : scan.scannedFiles.entrySet()) {
+            Entry previous = files.get(scanned.getKey());
+            if (previous == null) {
+                changes.added.add(scanned.getValue().path);
+            } else if (!previous.sameAs(scanned.getValue())) {
+                changes.changed.add(scanned.getValue().path);
+            } else {
+                scanned.getValue().hash = previous.hash;
+            }
+        }
+        for (String previous : files.keySet()) {
+            if (!scan.scannedFiles.containsKey(previous)) changes.removed.add(files.get(previous).path);
+        }
+
+        files = new HashMap<>(scan.scannedFiles);
+        directories = new HashMap<>(scan.scannedDirectories);
+        return changes;
+    }
+
+    /**
+     * @return Every tracked file of the snapshot, resolved against the root, in sorted order
+     */
+    public List<Path> files() {
+        List<String> keys = new ArrayList<>(files.keySet());
+        Collections.sort(keys);
+        List<Path> paths = new ArrayList<>(keys.size());
+        for (String key : keys) paths.add(files.get(key).path);
+        return paths;
+    }
+
+    /**
+     * Returns the content hash of a file, see {@link BuildState#hash(byte[])}. The hash is
+     * only computed again when the size or modification time of the file changed.
+     *
+     * @param path A file of the snapshot, as returned by {@link #files()}
+     * @return The content hash
+     * @throws IOException If the file cannot be read
+     */
+    public String hash(Path path) throws IOException {
+        Entry entry = files.get(this.key(path));
+        if (entry != null && entry.hash != null) return entry.hash;
+
+        String hash = BuildState.hash(Files.readAllBytes(path));
+        // A file written in the same timestamp tick as it was read could change unnoticed
+        if (entry != null && !isRacy(entry.modified)) entry.hash = hash;
+        return hash;
+    }
+
+    /**
+     * Writes the snapshot to the index file.
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void save() throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (PrintWriter out = new PrintWriter(temp, StandardCharsets.UTF_8)) {
+            out.println(this.header());
+            for (Map.Entry<String, Long> directory : directories.entrySet()) {
+                out.println("d " + directory.getValue() + " " + directory.getKey());
+            }
+            for (Map.Entry<String, Entry> entry : files.entrySet()) {
+                Entry value = entry.getValue();
+                out.println(
+                    "f " + value.size + " " + value.modified + " " +
+                    (value.hash == null ? "-" : value.hash) + " " + entry.getKey()
+                );
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the previous snapshot. A missing or unreadable index, or one of another
+     * root or suffix, is treated as empty, so every file is reported as added.
+     */
+    private void load() {
+        loaded = true;
+        if (!file.exists()) return;
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!this.header().equals(in.readLine())) return;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("d ")) {
+                    String[] parts = line.split(" ", 3);
+                    directories.put(parts[2], Long.parseLong(parts[1]));
+                } else if (line.startsWith("f ")) {
+                    String[] parts = line.split(" ", 5);
+                    Entry entry = new Entry(this.resolve(parts[4]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    entry.hash = parts[3].equals("-") ? null : parts[3];
+                    files.put(parts[4], entry);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            files.clear();
+            directories.clear();
+        }
+    }
+
+    private String header() {
+        return "index " + suffix + " " + root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Scans one directory, then its sub-directories in parallel.
+     */
+    @SuppressWarnings("serial")
+    private class Scan extends RecursiveAction {
+
+        /** The directory to scan, relative to the root */
+        private String directory;
+        /** Tracked files of the previous snapshot, by directory */
+        private Map<String, List<String>> knownFiles;
+        /** Sub-directories of the previous snapshot, by directory */
+        private Map<String, List<String>> knownDirectories;
+        /** Tracked files found by this scan */
+        private Map<String, Entry> scannedFiles;
+        /** Directories found by this scan */
+        private Map<String, Long> scannedDirectories;
+
+        Scan(
+            String directory,
+            Map<String, List<String>> knownFiles,
+            Map<String, List<String>> knownDirectories,
+            Map<String, Entry> scannedFiles,
+            Map<String, Long> scannedDirectories
+        ) {
+            this.directory = directory;
+            this.knownFiles = knownFiles;
+            this.knownDirectories = knownDirectories;
+            this.scannedFiles = scannedFiles;
+            this.scannedDirectories = scannedDirectories;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Path path = resolve(directory);
+                long modified = Files.readAttributes(path, BasicFileAttributes.class)
+                    .lastModifiedTime()
+                    .to(TimeUnit.NANOSECONDS);
+                Long previous = directories.get(directory);
+                boolean listed = previous == null || previous != modified;
+
+                List<Scan> subdirectories = new ArrayList<>();
+                boolean vanished = false;
+                if (listed) {
+                    vanished = this.scanListing(path, subdirectories);
+                } else {
+                    // Same entries as last time, only the tracked files may have been modified
+                    for (String subdirectory : knownDirectories.getOrDefault(directory, List.of())) {
+                        subdirectories.add(this.subdirectory(subdirectory));
+                    }
+                    for (String key : knownFiles.getOrDefault(directory, List.of())) {
+                        Path child = path.resolve(key.substring(key.lastIndexOf('/') + 1));
+                        try {
+                            this.track(key, child, Files.readAttributes(child, BasicFileAttributes.class));
+                        } catch (NoSuchFileException e) {
+                            vanished = true;
+                        }
+                    }
+                }
+
+                // Changed during the scan, or could still change within the same timestamp, so list it again next time
+                scannedDirectories.put(directory, vanished || isRacy(modified) ? -1L : modified);
+                invokeAll(subdirectories);
+            } catch (NoSuchFileException e) {
+                // Removed while scanning, its files are reported as removed
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Lists the directory and checks every entry.
+         *
+         * @return true if an entry vanished while checking it
+         */
+        private boolean scanListing(Path path, List<Scan> subdirectories) throws IOException {
+            boolean vanished = false;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    String key = directory.isEmpty() ? name : directory + "/" + name;
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(
+                            child,
+                            BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS
+                        );
+                        // Linked files are followed like Files.walk does, linked directories are not
+                        if (attributes.isSymbolicLink()) {
+                            attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                            if (attributes.isDirectory()) continue;
+                        }
+                        if (attributes.isDirectory()) {
+                            subdirectories.add(this.subdirectory(key));
+                        } else if (attributes.isRegularFile() && name.endsWith(suffix)) {
+                            this.track(key, child, attributes);
+                        }
+                    } catch (NoSuchFileException e) {
+                        vanished = true;
+                    }
+                }
+            }
+            return vanished;
+        }
+
+        private void track(String key, Path path, BasicFileAttributes attributes) {
+            scannedFiles.put(
+                key,
+                new Entry(path, attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+            );
+        }
+
+        private Scan subdirectory(String path) {
+            return new Scan(path, knownFiles, knownDirectories, scannedFiles, scannedDirectories);
+        }
+    }
+
+    private static boolean isRacy(long modifiedNanos) {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - modifiedNanos < RACY_NANOS;
+    }
+
+    private Path resolve(String key) {
+        return key.isEmpty() ? root : root.resolve(key);
+    }
+
+    private String key(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String parent(String key) {
+        int slash = key.lastIndexOf('/');
+        return slash < 0 ? "" : key.substring(0, slash);
+    }
+}
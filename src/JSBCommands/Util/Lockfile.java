@@ -0,0 +1,185 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The jsb.lock file, recording the fully resolved dependencies of a project: exact
+ * versions, where each jar was downloaded from, its size and its SHA-256 hash.
+ * It is meant to be committed, so every checkout builds with the same jars. While its
+ * input hash matches deps and repo.url in build.properties, builds use it as is.
+ */
+public class Lockfile {
+
+    /**
+     * One locked artifact.
+     */
+    public static class Entry {
+        /** The resolved artifact */
+        public Resolver.Artifact artifact;
+        /** Where the jar was downloaded from, null if the artifact has no jar */
+        public String url;
+        /** Size of the jar in bytes */
+        public long size;
+        /** SHA-256 hash of the jar, null if the artifact has no jar */
+        public String sha256;
+
+        /**
+         * @param artifact The resolved artifact
+         * @param url Where the jar was downloaded from, null if the artifact has no jar
+         * @param size Size of the jar in bytes
+         * @param sha256 SHA-256 hash of the jar, null if the artifact has no jar
+         */
+        public Entry(Resolver.Artifact artifact, String url, long size, String sha256) {
+            this.artifact = artifact;
+            this.url = url;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    /** Hash of the declared dependencies and repository the lock was made for */
+    private String input;
+    /** The locked artifacts, nearest first */
+    private List<Entry> entries;
+
+    /**
+     * @param input Hash of the declared dependencies and repository the lock is made for
+     * @param entries The locked artifacts, nearest first
+     */
+    public Lockfile(String input, List<Entry> entries) {
+        this.input = input;
+        this.entries = entries;
+    }
+
+    /**
+     * @return Hash of the declared dependencies and repository the lock was made for
+     */
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * @return The locked artifacts, nearest first
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The locked artifacts without the download details
+     */
+    public List<Resolver.Artifact> artifacts() {
+        List<Resolver.Artifact> artifacts = new ArrayList<>();
+        for (Entry entry : entries) artifacts.add(entry.artifact);
+        return artifacts;
+    }
+
+    /**
+     * Finds the entry of an artifact.
+     *
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @return The entry, or null if the artifact is not locked
+     */
+    public Entry get(String coordinates) {
+        for (Entry entry : entries) {
+            if (entry.artifact.coordinates.equals(coordinates)) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a lockfile.
+     *
+     * @param file The lockfile
+     * @return The lockfile, or null if it doesn't exist
+     * @throws IOException If the file cannot be read or is not a valid lockfile
+     */
+    public static Lockfile read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        String input = null;
+        List<Entry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] fields = line.trim().split(" ");
+            if (fields[0].equals("input") && fields.length == 2) {
+                input = fields[1];
+            } else if (fields[0].equals("artifact") && (fields.length == 8 || fields.length == 9)) {
+                Resolver.Artifact artifact = new Resolver.Artifact(
+                    fields[1],
+                    Integer.parseInt(fields[2]),
+                    fields[3].equals("-") ? null : fields[3]
+                );
+                artifact.jar = fields[4].equals("jar");
+                // Written before scopes, when everything was compile
+                if (fields.length == 9) artifact.scope = fields[8];
+                entries.add(new Entry(
+                    artifact,
+                    fields[5].equals("-") ? null : fields[5],
+                    Long.parseLong(fields[6]),
+                    fields[7].equals("-") ? null : fields[7]
+                ));
+            } else {
+                throw new IOException("Invalid line in " + file + ": " + line);
+            }
+        }
+        if (input == null) throw new IOException("No input hash in " + file);
+        return new Lockfile(input, entries);
+    }
+
+    /**
+     * Writes the lockfile, replacing the file at once so readers never see half of it.
+     *
+     * @param file The lockfile
+     * @throws IOException If the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        StringBuilder out = new StringBuilder()
+            .append("# Dependency lockfile, written by jsb dep lock. Commit it, don't edit it.\n")
+            .append("# artifact <coordinates> <depth> <needed by> <jar|pom> <url> <size> <sha256> <scope>\n")
+            .append("input ").append(input).append('\n');
+        for (Entry entry : entries) {
+            Resolver.Artifact artifact = entry.artifact;
+            out.append("artifact ")
+                .append(artifact.coordinates).append(' ')
+                .append(artifact.depth).append(' ')
+                .append(artifact.parent == null ? "-" : artifact.parent).append(' ')
+                .append(artifact.jar ? "jar" : "pom").append(' ')
+                .append(entry.url == null ? "-" : entry.url).append(' ')
+                .append(entry.size).append(' ')
+                .append(entry.sha256 == null ? "-" : entry.sha256).append(' ')
+                .append(artifact.scope).append('\n');
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, out, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
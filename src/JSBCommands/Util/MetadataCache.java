@@ -0,0 +1,200 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Remembers whether files exist in a repository, so checking a dependency doesn't need
+ * a request every time. Files are checked with HEAD requests, and both answers are kept:
+ * found for a long time, since released artifacts never change, and not found only
+ * briefly, since it may just not be published yet. The cache is shared by every project
+ * of the user, and updated under a file lock since several JSB processes may use it.
+ */
+public class MetadataCache {
+
+    /** Time limit for a HEAD request */
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    /** The cache file, URL = found or missing and when it was checked */
+    private Path file;
+    /** How long a file that was found is remembered */
+    private Duration found;
+    /** How long a file that was not found is remembered */
+    private Duration missing;
+    /** The repository and mirrors to check files in */
+    private Repositories repositories;
+
+    /**
+     * @param file The cache file
+     * @param found How long a file that was found is remembered
+     * @param missing How long a file that was not found is remembered
+     * @param repositories The repository and mirrors to check files in
+     */
+    public MetadataCache(Path file, Duration found, Duration missing, Repositories repositories) {
+        this.file = file;
+        this.found = found;
+        this.missing = missing;
+        this.repositories = repositories;
+    }
+
+    /**
+     * Checks whether files exist, answering from the cache where it can and checking
+     * the rest at the same time. Files that could not be checked, e.g. because the
+     * repository is down, count as missing but are not remembered.
+     *
+     * @param uris The files to check
+     * @param concurrency The most requests running at the same time
+     * @return Whether each file exists, in the order given
+     * @throws IOException If the cache cannot be read or written
+     * @throws InterruptedException If checking is interrupted
+     */
+    public Map<URI, Boolean> exists(List<URI> uris, int concurrency) throws IOException, InterruptedException {
+        Map<URI, Boolean> results = new LinkedHashMap<>();
+        Properties cached = this.read();
+        long now = System.currentTimeMillis();
+        Map<URI, Future<Integer>> checks = new LinkedHashMap<>();
+        Semaphore permits = new Semaphore(Math.max(1, concurrency));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (URI uri : uris) {
+                Boolean known = this.lookup(cached, uri, now);
+                if (known != null) {
+                    results.put(uri, known);
+                    continue;
+                }
+                results.put(uri, false);
+                if (Downloader.isOffline()) {
+                    System.out.println("Could not check " + uri + ": offline");
+                    continue;
+                }
+                checks.put(uri, executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        HttpRequest request = HttpRequest.newBuilder(uri)
+                            .timeout(TIMEOUT)
+                            .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                            .build();
+                        return repositories.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            Properties checked = new Properties();
+            for (Map.Entry<URI, Future<Integer>> check : checks.entrySet()) {
+                try {
+                    int status = check.getValue().get();
+                    if (status == 200 || status == 404 || status == 410) {
+                        results.put(check.getKey(), status == 200);
+                        checked.setProperty(check.getKey().toString(), (status == 200 ? "found " : "missing ") + now);
+                    } else {
+                        System.out.println("Could not check " + check.getKey() + ": HTTP " + status);
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    String reason = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+                    System.out.println("Could not check " + check.getKey() + ": " + reason);
+                }
+            }
+            if (!checked.isEmpty()) merge(file, checked, "Files checked in repositories, see dep.check.ttl");
+        }
+        return results;
+    }
+
+    /**
+     * @return Whether the cache says the file exists, or null if it doesn't know or forgot
+     */
+    private Boolean lookup(Properties cached, URI uri, long now) {
+        String entry = cached.getProperty(uri.toString());
+        if (entry == null) return null;
+        String[] fields = entry.split(" ");
+        if (fields.length != 2 || !fields[1].matches("\\d+")) return null;
+        boolean exists = fields[0].equals("found");
+        long age = now - Long.parseLong(fields[1]);
+        return age <= (exists ? found : missing).toMillis() ? exists : null;
+    }
+
+    private Properties read() throws IOException {
+        Properties cached = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (var in = Files.newInputStream(file)) {
+                cached.load(in);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Adds entries to a properties file shared by JSB processes, keeping the entries
+     * other processes added meanwhile.
+     *
+     * @param file The properties file, created if missing
+     * @param entries The entries to add or replace
+     * @param comment The comment at the top of the file
+     * @throws IOException If the file cannot be read or written
+     */
+    static void merge(Path file, Properties entries, String comment) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        synchronized (MetadataCache.class) {
+            try (
+                FileChannel channel = FileChannel.open(
+                    file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE
+                )
+            ) {
+                FileLock lock = channel.lock();
+                try {
+                    Properties cached = new Properties();
+                    cached.load(Channels.newInputStream(channel.position(0)));
+                    cached.putAll(entries);
+                    channel.truncate(0);
+                    OutputStream out = Channels.newOutputStream(channel.position(0));
+                    cached.store(out, comment);
+                    out.flush();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the modules of a multi-module project.
+ * The root build.properties lists the module directories in build.modules, and every
+ * module has its own build.properties, listing the modules it needs in module.deps.
+ */
+public class Modules {
+
+    /**
+     * Checks if a project is split into modules.
+     *
+     * @param root The configuration of the root project
+     * @return true if build.modules lists any modules
+     */
+    public static boolean enabled(Config root) {
+        String modules = root.get("build.modules");
+        return modules != null && !modules.isBlank();
+    }
+
+    /**
+     * Loads the configuration of every module, ordered so that each module comes
+     * after all modules it depends on.
+     *
+     * @param root The configuration of the root project
+     * @return The module configurations in build order, by module name
+     * @throws IllegalArgumentException If a module is missing, unknown or part of a cycle
+     */
+    public static LinkedHashMap<String, Config> load(Config root) {
+        Map<String, Config> modules = new LinkedHashMap<>();
+        for (String name : split(root.get("build.modules"))) {
+            File dir = root.getBaseDir().toPath().resolve(name).normalize().toFile();
+            if (!new File(dir, "build.properties").exists()) {
+                throw new IllegalArgumentException(
+                    "Module " + name + " has no build.properties in " + dir
+                );
+            }
+            Config module = new Config(dir);
+            module.initConfig();
+            modules.put(name, module);
+        }
+
+        LinkedHashMap<String, Config> ordered = new LinkedHashMap<>();
+        Set<String> visiting = new HashSet<>();
+        for (String name : modules.keySet()) {
+            visit(name, modules, ordered, visiting);
+        }
+        return ordered;
+    }
+
+    /**
+     * Returns the modules a module directly depends on.
+     *
+     * @param module The configuration of the module
+     * @return The names listed in module.deps
+     */
+    public static List<String> dependencies(Config module) {
+        return split(module.get("module.deps"));
+    }
+
+    /**
+     * Returns every module a module depends on, directly or through other modules.
+     *
+     * @param name The name of the module
+     * @param modules All modules, as returned by {@link #load(Config)}
+     * @return The names of the upstream modules, nearest first
+     */
+    public static List<String> upstream(String name, Map<String, Config> modules) {
+        Set<String> found = new LinkedHashSet<>();
+        List<String> queue = new ArrayList<>(dependencies(modules.get(name)));
+        while (!queue.isEmpty()) {
+            String next = queue.remove(0);
+            if (found.add(next)) queue.addAll(dependencies(modules.get(next)));
+        }
+        return new ArrayList<>(found);
+    }
+
+    private static void visit(
+        String name,
+        Map<String, Config> modules,
+        LinkedHashMap<String, Config> ordered,
+        Set<String> visiting
+    ) {
+        if (ordered.containsKey(name)) return;
+        if (!visiting.add(name)) {
+            throw new IllegalArgumentException("Modules depend on each other in a cycle: " + visiting);
+        }
+        Config module = modules.get(name);
+        for (String dependency : dependencies(module)) {
+            if (!modules.containsKey(dependency)) {
+                throw new IllegalArgumentException(
+                    "Module " + name + " depends on unknown module " + dependency
+                );
+            }
+            visit(dependency, modules, ordered, visiting);
+        }
+        visiting.remove(name);
+        ordered.put(name, module);
+    }
+
+    private static List<String> split(String list) {
+        List<String> names = new ArrayList<>();
+        if (list == null) return names;
+        for (String name : list.split(",")) {
+            if (!name.isBlank()) names.add(name.trim());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import com.sun.source.util.TreePath;
+import com.sun.source.util.Trees;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+
+/**
+ * The annotation processors on the processor path (build.processors), kept apart from
+ * the classpath. Every processor runs behind a {@link Filer} that records which source
+ * files the originating elements of each generated file came from, so an incremental
+ * build knows which generated files a changed source affects.
+ */
+public class Processors implements Closeable {
+
+    /** Loads the processors, and whatever they need, from the processor path */
+    private URLClassLoader loader;
+    /** The source files every file generated during the last compilation came from */
+    private Map<Path, Set<Path>> generated = new ConcurrentHashMap<>();
+    /** Class names of the processors that get the environment of javac unwrapped */
+    private Set<String> untracked = Set.of();
+
+    /**
+     * Opens the processor path. The processors are only loaded once they are created.
+     *
+     * @param path The processor jars and directories
+     * @throws IOException If a path cannot be turned into a URL
+     */
+    public Processors(List<File> path) throws IOException {
+        URL[] urls = new URL[path.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = path.get(i).toURI().toURL();
+        }
+        this.loader = new URLClassLoader(urls, Processors.class.getClassLoader());
+    }
+
+    /**
+     * Hands the given processors the environment of javac itself instead of the recording
+     * one, for processors that cast it to javac internals, such as Lombok. Whatever they
+     * generate is not recorded.
+     *
+     * @param untracked Class names of the processors, as registered in META-INF/services
+     */
+    public void setUntracked(Set<String> untracked) {
+        this.untracked = untracked;
+    }
+
+    /**
+     * Creates a new instance of every processor registered in META-INF/services on the
+     * processor path, for one compilation, and forgets what the last one generated.
+     *
+     * @return The processors, wrapped to record what they generate unless they are untracked
+     */
+    public List<Processor> create() {
+        generated.clear();
+        List<Processor> processors = new ArrayList<>();
+        for (Processor processor : ServiceLoader.load(Processor.class, loader)) {
+            processors.add(untracked.contains(processor.getClass().getName()) ? processor : new Tracked(processor));
+        }
+        return processors;
+    }
+
+    /**
+     * Returns the files generated during the last compilation. A file generated without
+     * originating elements in the compiled sources has no sources, which means it may
+     * depend on any of them.
+     *
+     * @return The absolute paths of the source files each file came from, by absolute path
+     */
+    public Map<Path, Set<Path>> getGenerated() {
+        return generated;
+    }
+
+    /**
+     * Closes the processor path.
+     *
+     * @throws IOException If a jar cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        loader.close();
+    }
+
+    private void record(FileObject file, ProcessingEnvironment environment, Element[] origins) {
+        // Files kept in memory are gone after the compilation anyway
+        if (!"file".equals(file.toUri().getScheme())) return;
+        Set<Path> sources = generated.computeIfAbsent(
+            Path.of(file.toUri()).toAbsolutePath().normalize(),
+            k -> new TreeSet<>()
+        );
+        Trees trees = Trees.instance(environment);
+        for (Element origin : origins) {
+            // Only top level types and packages belong to a compilation unit
+            Element outer = origin;
+            while (outer.getEnclosingElement() != null && outer.getEnclosingElement() instanceof TypeElement) {
+                outer = outer.getEnclosingElement();
+            }
+            TreePath path = trees.getPath(outer);
+            if (path == null) continue;
+            sources.add(Path.of(path.getCompilationUnit().getSourceFile().toUri()).toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Hands a processor an environment whose {@link Filer} records every file it creates.
+     */
+    private class Tracked implements Processor {
+        private Processor processor;
+
+        Tracked(Processor processor) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void init(ProcessingEnvironment environment) {
+            processor.init(new Environment(environment));
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+            return processor.process(annotations, round);
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return processor.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return processor.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return processor.getSupportedSourceVersion();
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(
+            Element element,
+            AnnotationMirror annotation,
+            ExecutableElement member,
+            String userText
+        ) {
+            return processor.getCompletions(element, annotation, member, userText);
+        }
+    }
+
+    /**
+     * The environment of javac, with a recording {@link Filer}.
+     */
+    private class Environment implements ProcessingEnvironment {
+        private ProcessingEnvironment environment;
+        private Filer filer;
+
+        Environment(ProcessingEnvironment environment) {
+            this.environment = environment;
+            this.filer = new RecordingFiler(environment);
+        }
+
+        @Override
+        public Map<String, String> getOptions() {
+            return environment.getOptions();
+        }
+
+        @Override
+        public Messager getMessager() {
+            return environment.getMessager();
+        }
+
+        @Override
+        public Filer getFiler() {
+            return filer;
+        }
+
+        @Override
+        public Elements getElementUtils() {
+            return environment.getElementUtils();
+        }
+
+        @Override
+        public Types getTypeUtils() {
+            return environment.getTypeUtils();
+        }
+
+        @Override
+        public SourceVersion getSourceVersion() {
+            return environment.getSourceVersion();
+        }
+
+        @Override
+        public Locale getLocale() {
+            return environment.getLocale();
+        }
+
+        @Override
+        public boolean isPreviewEnabled() {
+            return environment.isPreviewEnabled();
+        }
+    }
+
+    /**
+     * Creates files through the Filer of javac and records where each came from.
+     */
+    private class RecordingFiler implements Filer {
+        private ProcessingEnvironment environment;
+
+        RecordingFiler(ProcessingEnvironment environment) {
+            this.environment = environment;
+        }
+
+        @Override
+        public JavaFileObject createSourceFile(CharSequence name, Element... origins) throws IOException {
+            JavaFileObject file = environment.getFiler().createSourceFile(name, origins);
+            record(file, environment, origins);
+            return file;
+        }
+
+        @Override
+        public JavaFileObject createClassFile(CharSequence name, Element... origins) throws IOException {
+            JavaFileObject file = environment.getFiler().createClassFile(name, origins);
+            record(file, environment, origins);
+            return file;
+        }
+
+        @Override
+        public FileObject createResource(
+            JavaFileManager.Location location,
+            CharSequence moduleAndPackage,
+            CharSequence relativeName,
+            Element... origins
+        ) throws IOException {
+            FileObject file = environment.getFiler().createResource(location, moduleAndPackage, relativeName, origins);
+            record(file, environment, origins);
+            return file;
+        }
+
+        @Override
+        public FileObject getResource(
+            JavaFileManager.Location location,
+            CharSequence moduleAndPackage,
+            CharSequence relativeName
+        ) throws IOException {
+            return environment.getFiler().getResource(location, moduleAndPackage, relativeName);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the release source sets of a project, for multi-release jars.
+ * build.release.sets lists sources for newer Java releases, as release:directory pairs,
+ * e.g. 21:./src/java21. Each set is compiled with --release against the base classes,
+ * and its classes replace the base ones when running on that release or newer.
+ */
+public class ReleaseSets {
+
+    /**
+     * Returns the release source sets of a project.
+     *
+     * @param config The configuration of the project
+     * @return The source directory of every set, by release, lowest release first
+     * @throws IllegalArgumentException If an entry is not a release and a directory
+     */
+    public static TreeMap<Integer, Path> load(Config config) {
+        TreeMap<Integer, Path> sets = new TreeMap<>();
+        String list = config.get("build.release.sets");
+        if (list == null) return sets;
+        for (String entry : list.split(",")) {
+            if (entry.isBlank()) continue;
+            int colon = entry.indexOf(':');
+            try {
+                int release = Integer.parseInt(entry.substring(0, Math.max(colon, 0)).trim());
+                sets.put(release, config.getBaseDir().toPath().resolve(entry.substring(colon + 1).trim()).normalize());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                    "Release source set " + entry.trim() + " is not like 21:./src/java21"
+                );
+            }
+        }
+        return sets;
+    }
+
+    /**
+     * @param config The configuration of the project
+     * @param release The release of a source set
+     * @return The directory the classes of the set are compiled to, in build.state
+     */
+    public static Path output(Config config, int release) {
+        return config.path("build.state").resolve("versions").resolve(String.valueOf(release));
+    }
+
+    /**
+     * Returns the compiled sets a given Java release picks classes from, in the order a
+     * multi-release jar looks them up: the newest release first, the base classes last.
+     *
+     * @param config The configuration of the project
+     * @param release The Java release running the classes
+     * @return The class directories of the sets for that release or older, newest first
+     */
+    public static List<Path> forRelease(Config config, int release) {
+        List<Path> outputs = new ArrayList<>();
+        for (Map.Entry<Integer, Path> set : load(config).headMap(release, true).descendingMap().entrySet()) {
+            outputs.add(output(config, set.getKey()));
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A repository and its mirrors, which all serve the same files. Local ones, file:// URLs
+ * such as the local Maven repository, are looked in first and never need a request.
+ * Each request to the remote ones goes to the fastest healthy one first, and if it has not answered after the hedge delay, the
+ * same request goes to the next one too and the first answer wins. A repository that
+ * fails, answers 404 or is overloaded is skipped for the next one at once.
+ * The latency of each repository is tracked as a moving average and saved, together
+ * with its failures, so the next run starts with what this one learned.
+ */
+public class Repositories {
+
+    /** How much a new latency measurement counts in the moving average */
+    private static final double WEIGHT = 0.3;
+    /** Failures in a row after which a repository is tried last */
+    private static final int FAILURES = 3;
+    /** How long a repository that failed too often is tried last */
+    private static final long COOLDOWN = 5 * 60 * 1000;
+    /** Every how many requests the second best repository is tried first, to measure it again */
+    private static final int PROBE = 10;
+
+    /**
+     * What is known about one repository.
+     */
+    private static class Health {
+        /** Moving average of the time until the response headers, in ms, -1 if never measured */
+        double latency = -1;
+        /** Failures in a row */
+        int failures;
+        /** When it last failed, in ms since the epoch */
+        long failedAt;
+    }
+
+    /**
+     * One request to one repository.
+     */
+    private static class Attempt<T> {
+        String url;
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> response;
+    }
+
+    /** The repository URLs, ending with a slash, in the configured order */
+    private List<String> urls = new ArrayList<>();
+    /** The URLs of the remote repositories, requests are sent to */
+    private List<String> remote = new ArrayList<>();
+    /** The directories of the local repositories, in the configured order */
+    private List<Path> local = new ArrayList<>();
+    /** Where the health of the repositories is saved */
+    private Path file;
+    /** How long to wait for an answer before asking the next repository too, 0 to never */
+    private Duration hedgeDelay;
+    /** The health of each repository, by URL */
+    private Map<String, Health> health = new HashMap<>();
+    /** Requests sent so far */
+    private int requests;
+
+    /**
+     * @param urls The repository URLs, in the order to try them while their latency is
+     *             unknown. file:// URLs are local repositories.
+     * @param file Where the health of the repositories is saved
+     * @param hedgeDelay How long to wait for an answer before asking the next repository too, 0 to never
+     * @throws IOException If the saved health cannot be read
+     */
+    public Repositories(List<String> urls, Path file, Duration hedgeDelay) throws IOException {
+        for (String url : urls) {
+            if (url.isBlank()) continue;
+            url = url.trim().endsWith("/") ? url.trim() : url.trim() + "/";
+            if (this.urls.contains(url)) continue;
+            this.urls.add(url);
+            if (url.startsWith("file:")) {
+                local.add(Path.of(URI.create(url)));
+            } else {
+                remote.add(url);
+            }
+        }
+        this.file = file;
+        this.hedgeDelay = hedgeDelay;
+
+        Properties saved = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                saved.load(in);
+            }
+        }
+        for (String url : remote) {
+            Health known = new Health();
+            String[] fields = saved.getProperty(url, "").split(" ");
+            if (fields.length == 3) {
+                try {
+                    known.latency = Double.parseDouble(fields[0]);
+                    known.failures = Integer.parseInt(fields[1]);
+                    known.failedAt = Long.parseLong(fields[2]);
+                } catch (NumberFormatException e) {
+                    known = new Health();
+                }
+            }
+            health.put(url, known);
+        }
+    }
+
+    /**
+     * Sends a request for a file in the repositories, to the fastest healthy one first.
+     * The request URI may point into any of them, only the path after the repository
+     * URL is used. Requests for other URIs are sent as they are.
+     *
+     * @param request The request
+     * @param handler What to do with the response body
+     * @return The first good response, else a 404 if any repository answered one, else an error response
+     * @throws IOException If no repository could be reached
+     * @throws InterruptedException If the request is interrupted
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+        throws IOException, InterruptedException {
+        String uri = request.uri().toString();
+        String path = null;
+        for (String url : urls) {
+            if (uri.startsWith(url)) {
+                path = uri.substring(url.length());
+                break;
+            }
+        }
+        if (path == null) return Downloader.client().send(request, handler);
+        if (remote.isEmpty()) throw new IOException("No remote repository to get " + path + " from");
+
+        List<String> order = this.order();
+        BlockingQueue<Attempt<T>> answered = new LinkedBlockingQueue<>();
+        List<Attempt<T>> running = new ArrayList<>();
+        HttpResponse<T> fallback = null;
+        IOException failure = null;
+        int next = 0;
+        try {
+            running.add(this.start(order.get(next++), path, request, handler, answered));
+            while (!running.isEmpty()) {
+                boolean hedge = next < order.size() && !hedgeDelay.isZero();
+                Attempt<T> attempt = hedge
+                    ? answered.poll(hedgeDelay.toMillis(), TimeUnit.MILLISECONDS)
+                    : answered.take();
+                if (attempt == null) {
+                    // Slow to answer, ask the next repository too
+                    running.add(this.start(order.get(next++), path, request, handler, answered));
+                    continue;
+                }
+                running.remove(attempt);
+                long millis = (System.nanoTime() - attempt.start) / 1_000_000;
+
+                HttpResponse<T> response;
+                try {
+                    response = attempt.response.get();
+                } catch (ExecutionException e) {
+                    this.record(attempt.url, millis, false);
+                    failure = e.getCause() instanceof IOException io
+                        ? io
+                        : new IOException("Request to " + attempt.url + path + " failed", e.getCause());
+                    if (running.isEmpty() && next < order.size()) {
+                        running.add(this.start(order.get(next++), path, request, handler, answered));
+                    }
+                    continue;
+                }
+
+                int status = response.statusCode();
+                this.record(attempt.url, millis, status < 500 && status != 429);
+                if (status < 400 || status == 416) {
+                    for (Attempt<T> other : running) {
+                        // Lost the race, so it takes at least this long
+                        this.record(other.url, (System.nanoTime() - other.start) / 1_000_000, true);
+                        other.response.cancel(true);
+                        other.response.thenAccept(Repositories::discard);
+                    }
+                    running.clear();
+                    if (fallback != null) discard(fallback);
+                    return response;
+                }
+                // Missing here or failing, another repository may have it. If none does,
+                // "not found" says more than an error from a failing repository.
+                if (fallback == null || (fallback.statusCode() >= 500 && status < 500)) {
+                    if (fallback != null) discard(fallback);
+                    fallback = response;
+                } else {
+                    discard(response);
+                }
+                if (running.isEmpty() && next < order.size()) {
+                    running.add(this.start(order.get(next++), path, request, handler, answered));
+                }
+            }
+        } finally {
+            for (Attempt<T> attempt : running) {
+                attempt.response.cancel(true);
+                attempt.response.thenAccept(Repositories::discard);
+            }
+        }
+        if (fallback != null) return fallback;
+        throw failure;
+    }
+
+    /**
+     * Finds a file in the local repositories.
+     *
+     * @param path The path of the file in a repository, e.g. org/json/json/1/json-1.pom
+     * @return The file in the first local repository that has it, or null if none has it
+     */
+    public Path local(String path) {
+        for (Path root : local) {
+            Path file = root.resolve(path);
+            if (Files.isRegularFile(file)) return file;
+        }
+        return null;
+    }
+
+    /**
+     * Saves what was learned about the repositories, for the next run.
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void save() throws IOException {
+        Properties entries = new Properties();
+        synchronized (this) {
+            for (Map.Entry<String, Health> entry : health.entrySet()) {
+                Health known = entry.getValue();
+                if (known.latency < 0 && known.failures == 0) continue;
+                entries.setProperty(
+                    entry.getKey(),
+                    String.format(Locale.ROOT, "%.1f %d %d", known.latency, known.failures, known.failedAt)
+                );
+            }
+        }
+        if (!entries.isEmpty()) {
+            MetadataCache.merge(file, entries, "Repository latency in ms, failures in a row, last failure, see repo.mirrors");
+        }
+    }
+
+    /**
+     * @return The repositories with their latency and health, for messages
+     */
+    public synchronized String describe() {
+        List<String> described = new ArrayList<>();
+        for (String url : remote) {
+            Health known = health.get(url);
+            String state = known.latency < 0 ? "not measured" : Math.round(known.latency) + " ms";
+            if (!this.healthy(known)) state = known.latency < 0 ? "failing" : state + ", failing";
+            described.add(url + " " + state);
+        }
+        return String.join(", ", described);
+    }
+
+    /**
+     * @return The URLs of the remote repositories, ending with a slash, in the configured order
+     */
+    public List<String> getRemote() {
+        return remote;
+    }
+
+    /**
+     * @return The repositories in the order to try them: healthy before failing, then
+     *         fastest first. Ones never used come first, in the configured order, so
+     *         their latency gets measured. Now and then the second best goes first, so
+     *         one slow measurement, e.g. while the connection was set up, doesn't stick.
+     */
+    private synchronized List<String> order() {
+        List<String> order = new ArrayList<>(remote);
+        order.sort(
+            Comparator.comparing((String url) -> !this.healthy(health.get(url)))
+                .thenComparingDouble(url -> health.get(url).latency)
+        );
+        if (++requests % PROBE == 0 && order.size() > 1 && this.healthy(health.get(order.get(1)))) {
+            order.add(0, order.remove(1));
+        }
+        return order;
+    }
+
+    private boolean healthy(Health known) {
+        return known.failures < FAILURES || System.currentTimeMillis() - known.failedAt > COOLDOWN;
+    }
+
+    private synchronized void record(String url, long millis, boolean ok) {
+        Health known = health.get(url);
+        if (ok) {
+            known.latency = known.latency < 0 ? millis : known.latency * (1 - WEIGHT) + millis * WEIGHT;
+            known.failures = 0;
+        } else {
+            known.failures++;
+            known.failedAt = System.currentTimeMillis();
+        }
+    }
+
+    private <T> Attempt<T> start(
+        String url,
+        String path,
+        HttpRequest request,
+        HttpResponse.BodyHandler<T> handler,
+        BlockingQueue<Attempt<T>> answered
+    ) {
+        Attempt<T> attempt = new Attempt<>();
+        attempt.url = url;
+        HttpRequest copy = HttpRequest.newBuilder(request, (name, value) -> true).uri(URI.create(url + path)).build();
+        attempt.response = Downloader.client().sendAsync(copy, handler);
+        attempt.response.whenComplete((response, error) -> answered.add(attempt));
+        return attempt;
+    }
+
+    /**
+     * Closes the body of a response that is not used, so its connection is freed.
+     */
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof AutoCloseable body) {
+            try {
+                body.close();
+            } catch (Exception e) {
+                // Nothing to free anymore
+            }
+        }
+    }
+}
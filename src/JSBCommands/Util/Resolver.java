@@ -0,0 +1,640 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Resolves the transitive dependencies of a list of Maven coordinates from their POM files.
+ * Parent POMs, dependencyManagement and BOM imports are applied the way Maven does, and
+ * when two versions of an artifact are reachable, the one nearest to the declared
+ * dependencies wins (the first declared one on a tie). Only compile and runtime
+ * dependencies are followed, optional ones and exclusions are left out.
+ * Every artifact gets the scope Maven would give it: what its POMs say, narrowed by the
+ * scope of whatever brought it in, and widened when it is reached by several paths.
+ */
+public class Resolver {
+
+    /**
+     * One artifact of the resolved graph.
+     */
+    public static class Artifact {
+        /** The Maven coordinates, groupId:artifactId:version */
+        public String coordinates;
+        /** How far it is from the declared dependencies, 0 for the declared ones */
+        public int depth;
+        /** The artifact that brought it in, null for the declared ones */
+        public String parent;
+        /** false if the artifact is only a POM, without a jar */
+        public boolean jar = true;
+        /** The Maven scope: compile, runtime, provided or test */
+        public String scope = "compile";
+
+        /**
+         * @param coordinates The Maven coordinates, groupId:artifactId:version
+         * @param depth How far it is from the declared dependencies
+         * @param parent The artifact that brought it in, null for the declared ones
+         */
+        public Artifact(String coordinates, int depth, String parent) {
+            this.coordinates = coordinates;
+            this.depth = depth;
+            this.parent = parent;
+        }
+    }
+
+    /** A dependency as written in a POM, before or after interpolation */
+    private static class Dep {
+        String groupId;
+        String artifactId;
+        String version;
+        String scope;
+        String type;
+        String classifier;
+        boolean optional;
+        List<String> exclusions = new ArrayList<>();
+
+        String key() {
+            return groupId + ":" + artifactId + ":" + (type == null ? "jar" : type) + ":" +
+                (classifier == null ? "" : classifier);
+        }
+
+        Dep interpolate(Map<String, String> properties) {
+            Dep dep = new Dep();
+            dep.groupId = Resolver.interpolate(groupId, properties);
+            dep.artifactId = Resolver.interpolate(artifactId, properties);
+            dep.version = Resolver.interpolate(version, properties);
+            dep.scope = Resolver.interpolate(scope, properties);
+            dep.type = Resolver.interpolate(type, properties);
+            dep.classifier = Resolver.interpolate(classifier, properties);
+            dep.optional = optional;
+            for (String exclusion : exclusions) dep.exclusions.add(Resolver.interpolate(exclusion, properties));
+            return dep;
+        }
+    }
+
+    /** A dependency one artifact has on another, by groupId:artifactId */
+    private static class Edge {
+        String parent;
+        String child;
+        /** The classpaths the dependency is on, see {@link #scopeBits(String)} */
+        int scope;
+
+        Edge(String parent, String child, int scope) {
+            this.parent = parent;
+            this.child = child;
+            this.scope = scope;
+        }
+    }
+
+    /** A POM with its parents, imports and properties applied */
+    private static class Pom {
+        String groupId;
+        String artifactId;
+        String version;
+        String packaging = "jar";
+        Map<String, String> properties = new HashMap<>();
+        /** Managed dependencies by key, including the ones of imported BOMs */
+        Map<String, Dep> managed = new LinkedHashMap<>();
+        /** Dependencies by key, with versions and scopes from dependencyManagement filled in */
+        Map<String, Dep> dependencies = new LinkedHashMap<>();
+    }
+
+    /** Scope bit of the classpath sources are compiled against */
+    private static final int COMPILE = 1;
+    /** Scope bit of the classpath the program runs with */
+    private static final int RUNTIME = 2;
+    /** Scope bit of the classpath tests are compiled against and run with */
+    private static final int TEST = 4;
+    /** The scopes, by the classpaths they put an artifact on */
+    private static final String[] SCOPES = { null, null, null, null, "test", "provided", "runtime", "compile" };
+
+    /** Matches ${property} references */
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    /** The repository URL, ending with a slash */
+    private String repository;
+    /** Where downloaded POM files are kept */
+    private Path pomDir;
+    /** The most POMs downloaded at the same time */
+    private int concurrency;
+    /** Effective POMs by coordinates, shared by all threads so each is loaded once */
+    private Map<String, CompletableFuture<Pom>> poms = new ConcurrentHashMap<>();
+    /** Number of POM files parsed */
+    private int parsed;
+    /** The repository and mirrors POMs are downloaded from, null to use the repository URL only */
+    private Repositories repositories;
+    /** Resolves SNAPSHOT versions to timestamped builds, null to take them as they are */
+    private Snapshots snapshots;
+
+    /**
+     * @param repository The repository URL
+     * @param pomDir Where to keep downloaded POM files
+     * @param concurrency The most POMs downloaded at the same time
+     */
+    public Resolver(String repository, Path pomDir, int concurrency) {
+        this.repository = repository.endsWith("/") ? repository : repository + "/";
+        this.pomDir = pomDir;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * @param repositories The repository and mirrors to download POMs from, null to
+     *                     use the repository URL only
+     */
+    public void setRepositories(Repositories repositories) {
+        this.repositories = repositories;
+    }
+
+    /**
+     * @param snapshots Resolves SNAPSHOT versions to the timestamped builds whose POMs
+     *                  are read, null to take them as they are
+     */
+    public void setSnapshots(Snapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Resolves the declared dependencies and everything they need.
+     * The POMs of each level of the graph are loaded at the same time.
+     *
+     * @param declared The declared Maven coordinates with their scopes, in order
+     * @return The resolved artifacts, nearest first, starting with the declared ones
+     * @throws IOException If a POM cannot be downloaded or parsed, listing every failure of the level
+     * @throws InterruptedException If resolution is interrupted
+     */
+    public List<Artifact> resolve(Map<String, String> declared) throws IOException, InterruptedException {
+        List<Artifact> resolved = new ArrayList<>();
+        Map<String, String> selected = new HashMap<>();
+        Map<String, Set<String>> exclusions = new HashMap<>();
+        Map<String, Integer> scopes = new HashMap<>();
+        List<Edge> edges = new ArrayList<>();
+
+        List<Artifact> level = new ArrayList<>();
+        for (Map.Entry<String, String> entry : declared.entrySet()) {
+            String coordinates = entry.getKey();
+            String[] parts = coordinates.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException(
+                    "Invalid Maven string format. Expected: groupId:artifactId:version, Got: " + coordinates
+                );
+            }
+            // Declared in several scopes, the first version is used in all of them
+            scopes.merge(parts[0] + ":" + parts[1], scopeBits(entry.getValue()), (a, b) -> a | b);
+            if (selected.putIfAbsent(parts[0] + ":" + parts[1], parts[2]) != null) continue;
+            Artifact artifact = new Artifact(coordinates, 0, null);
+            exclusions.put(coordinates, Set.of());
+            resolved.add(artifact);
+            level.add(artifact);
+        }
+
+        while (!level.isEmpty()) {
+            Map<String, Pom> loaded = this.loadAll(level);
+            List<Artifact> next = new ArrayList<>();
+            for (Artifact artifact : level) {
+                Pom pom = loaded.get(artifact.coordinates);
+                if (pom.packaging.equals("pom")) artifact.jar = false;
+                Set<String> excluded = exclusions.get(artifact.coordinates);
+
+                for (Dep dep : pom.dependencies.values()) {
+                    if (dep.optional || !isFollowed(dep.scope)) continue;
+                    // Artifacts with a classifier (e.g. natives) need their own coordinates
+                    if (dep.classifier != null && !dep.classifier.isEmpty()) continue;
+                    String ga = dep.groupId + ":" + dep.artifactId;
+                    if (isExcluded(excluded, dep.groupId, dep.artifactId)) continue;
+                    if (selected.containsKey(ga)) {
+                        // Its version is decided, but this path may put it on more classpaths
+                        edges.add(new Edge(groupArtifact(artifact.coordinates), ga, scopeBits(dep.scope)));
+                        continue;
+                    }
+                    if (dep.version == null || dep.version.isEmpty()) {
+                        System.out.println("No version for " + ga + ", needed by " + artifact.coordinates + ", skipping it");
+                        continue;
+                    }
+
+                    String version = version(dep.version);
+                    selected.put(ga, version);
+                    edges.add(new Edge(groupArtifact(artifact.coordinates), ga, scopeBits(dep.scope)));
+                    Artifact child = new Artifact(ga + ":" + version, artifact.depth + 1, artifact.coordinates);
+                    if ("pom".equals(dep.type)) child.jar = false;
+                    Set<String> childExclusions = new LinkedHashSet<>(excluded);
+                    childExclusions.addAll(dep.exclusions);
+                    exclusions.put(child.coordinates, childExclusions);
+                    resolved.add(child);
+                    next.add(child);
+                }
+            }
+            level = next;
+        }
+
+        // Scopes only ever widen, so this ends once a pass changes nothing
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Edge edge : edges) {
+                int parent = scopes.getOrDefault(edge.parent, 0);
+                if (parent == 0) continue;
+                // Everything a provided dependency needs is provided too
+                int inherited = parent == (COMPILE | TEST) ? parent : parent & edge.scope;
+                int before = scopes.getOrDefault(edge.child, 0);
+                if ((before | inherited) != before) {
+                    scopes.put(edge.child, before | inherited);
+                    changed = true;
+                }
+            }
+        }
+        for (Artifact artifact : resolved) {
+            int bits = scopes.getOrDefault(groupArtifact(artifact.coordinates), 0);
+            artifact.scope = SCOPES[bits] != null ? SCOPES[bits] : "compile";
+        }
+        return resolved;
+    }
+
+    /**
+     * @return Number of POM files parsed by the last resolutions, 0 if everything was cached
+     */
+    public int getParsed() {
+        return parsed;
+    }
+
+    /**
+     * Reads a resolved graph saved by {@link #write(Path, String, List)}.
+     *
+     * @param file The graph file
+     * @param key The key the graph has to be saved under, e.g. a hash of the declared dependencies
+     * @return The resolved artifacts, or null if there is no graph for this key
+     */
+    public static List<Artifact> read(Path file, String key) {
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals("key " + key)) return null;
+            List<Artifact> artifacts = new ArrayList<>();
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split(" ");
+                if (fields.length != 5) return null;
+                Artifact artifact = new Artifact(
+                    fields[0],
+                    Integer.parseInt(fields[1]),
+                    fields[2].equals("-") ? null : fields[2]
+                );
+                artifact.jar = fields[3].equals("jar");
+                artifact.scope = fields[4];
+                artifacts.add(artifact);
+            }
+            return artifacts;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves a resolved graph, replacing the file at once so readers never see half of it.
+     *
+     * @param file The graph file
+     * @param key The key to save the graph under
+     * @param artifacts The resolved artifacts
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Path file, String key, List<Artifact> artifacts) throws IOException {
+        StringBuilder out = new StringBuilder("key ").append(key).append('\n');
+        for (Artifact artifact : artifacts) {
+            out.append(artifact.coordinates).append(' ')
+                .append(artifact.depth).append(' ')
+                .append(artifact.parent == null ? "-" : artifact.parent).append(' ')
+                .append(artifact.jar ? "jar" : "pom").append(' ')
+                .append(artifact.scope).append('\n');
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, out, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Loads the POMs of one level of the graph at the same time.
+     */
+    private Map<String, Pom> loadAll(List<Artifact> level) throws IOException, InterruptedException {
+        Map<String, Pom> loaded = new HashMap<>();
+        List<String> failures = new ArrayList<>();
+        Semaphore permits = new Semaphore(concurrency);
+        Map<String, Future<Pom>> futures = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Artifact artifact : level) {
+                futures.put(artifact.coordinates, executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return this.pom(artifact.coordinates);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<Pom>> future : futures.entrySet()) {
+                try {
+                    loaded.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    failures.add(future.getKey() + ": " + e.getCause().getMessage());
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new IOException(
+                "Could not resolve " + failures.size() + " dependency POM(s):\n  - " + String.join("\n  - ", failures)
+            );
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the effective POM of an artifact, loading it only once even when
+     * several threads ask for it, e.g. for a parent shared by many artifacts.
+     */
+    private Pom pom(String coordinates) throws IOException, InterruptedException {
+        CompletableFuture<Pom> future = new CompletableFuture<>();
+        CompletableFuture<Pom> existing = poms.putIfAbsent(coordinates, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+        try {
+            Pom pom = this.load(coordinates);
+            future.complete(pom);
+            return pom;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a POM and applies its parent, properties and BOM imports.
+     */
+    private Pom load(String coordinates) throws IOException, InterruptedException {
+        Element project = this.parse(coordinates);
+        Pom pom = new Pom();
+        Pom parent = null;
+
+        Element parentElement = child(project, "parent");
+        if (parentElement != null) {
+            parent = this.pom(
+                text(parentElement, "groupId") + ":" + text(parentElement, "artifactId") + ":" + text(parentElement, "version")
+            );
+            pom.properties.putAll(parent.properties);
+            pom.managed.putAll(parent.managed);
+            pom.dependencies.putAll(parent.dependencies);
+        }
+
+        pom.groupId = text(project, "groupId") != null ? text(project, "groupId") : parent == null ? null : parent.groupId;
+        pom.artifactId = text(project, "artifactId");
+        pom.version = text(project, "version") != null ? text(project, "version") : parent == null ? null : parent.version;
+        if (text(project, "packaging") != null) pom.packaging = text(project, "packaging");
+
+        Element properties = child(project, "properties");
+        if (properties != null) {
+            for (Element property : children(properties, null)) {
+                pom.properties.put(property.getTagName(), property.getTextContent().trim());
+            }
+        }
+        for (String prefix : List.of("project.", "pom.", "")) {
+            pom.properties.put(prefix + "groupId", pom.groupId);
+            pom.properties.put(prefix + "artifactId", pom.artifactId);
+            pom.properties.put(prefix + "version", pom.version);
+        }
+        if (parent != null) {
+            pom.properties.put("project.parent.groupId", parent.groupId);
+            pom.properties.put("project.parent.version", parent.version);
+            pom.properties.put("parent.version", parent.version);
+        }
+
+        // Managed dependencies of the parent stay, the ones declared here win
+        Element management = child(project, "dependencyManagement");
+        if (management != null && child(management, "dependencies") != null) {
+            for (Element element : children(child(management, "dependencies"), "dependency")) {
+                Dep dep = dependency(element).interpolate(pom.properties);
+                if ("import".equals(dep.scope)) {
+                    Pom bom = this.pom(dep.groupId + ":" + dep.artifactId + ":" + version(dep.version));
+                    for (Map.Entry<String, Dep> imported : bom.managed.entrySet()) {
+                        pom.managed.putIfAbsent(imported.getKey(), imported.getValue());
+                    }
+                } else {
+                    pom.managed.put(dep.key(), dep);
+                }
+            }
+        }
+
+        Element dependencies = child(project, "dependencies");
+        if (dependencies != null) {
+            for (Element element : children(dependencies, "dependency")) {
+                Dep dep = dependency(element).interpolate(pom.properties);
+                pom.dependencies.put(dep.key(), dep);
+            }
+        }
+
+        // Inherited dependencies are copied, the parent's ones are shared with its other children
+        for (Map.Entry<String, Dep> entry : pom.dependencies.entrySet()) {
+            Dep dep = entry.getValue().interpolate(pom.properties);
+            entry.setValue(dep);
+            Dep managed = pom.managed.get(dep.key());
+            if (managed == null) continue;
+            if (dep.version == null || dep.version.isEmpty()) dep.version = managed.version;
+            if (dep.scope == null || dep.scope.isEmpty()) dep.scope = managed.scope;
+            if (dep.exclusions.isEmpty()) dep.exclusions.addAll(managed.exclusions);
+        }
+        return pom;
+    }
+
+    /**
+     * Downloads a POM unless a local repository has it or it was downloaded before, and parses it.
+     */
+    private Element parse(String coordinates) throws IOException, InterruptedException {
+        String[] parts = coordinates.split(":");
+        String version = snapshots != null ? snapshots.version(coordinates, "pom") : parts[2];
+        String name = parts[1] + "-" + version + ".pom";
+        Path file = pomDir.resolve(parts[0]).resolve(name);
+        String path = parts[0].replace(".", "/") + "/" + parts[1] + "/" + parts[2] + "/" + name;
+        // A SNAPSHOT without timestamp may have been installed again since it was cached
+        boolean cached = Files.isRegularFile(file) && !Snapshots.isSnapshot(version);
+        Path local = cached || repositories == null ? null : repositories.local(path);
+        if (local != null) {
+            // Read in place, no need to keep a copy
+            file = local;
+        } else if (!Files.isRegularFile(file)) {
+            URI uri = URI.create(repository + path);
+            Downloader downloader = new Downloader(1);
+            downloader.setRepositories(repositories);
+            downloader.download(uri, file);
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setExpandEntityReferences(false);
+            Document document = factory.newDocumentBuilder().parse(in);
+            synchronized (this) {
+                parsed++;
+            }
+            return document.getDocumentElement();
+        } catch (Exception e) {
+            if (e instanceof IOException io) throw io;
+            throw new IOException("Could not parse " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Dep dependency(Element element) {
+        Dep dep = new Dep();
+        dep.groupId = text(element, "groupId");
+        dep.artifactId = text(element, "artifactId");
+        dep.version = text(element, "version");
+        dep.scope = text(element, "scope");
+        dep.type = text(element, "type");
+        dep.classifier = text(element, "classifier");
+        dep.optional = "true".equals(text(element, "optional"));
+        Element exclusions = child(element, "exclusions");
+        if (exclusions != null) {
+            for (Element exclusion : children(exclusions, "exclusion")) {
+                dep.exclusions.add(text(exclusion, "groupId") + ":" + text(exclusion, "artifactId"));
+            }
+        }
+        return dep;
+    }
+
+    /**
+     * @param scope A Maven scope, null or empty for compile
+     * @return The classpaths the scope puts an artifact on: compile, runtime, test
+     */
+    private static int scopeBits(String scope) {
+        if (scope == null || scope.isEmpty()) return COMPILE | RUNTIME | TEST;
+        switch (scope) {
+            case "runtime":
+                return RUNTIME | TEST;
+            case "provided":
+                return COMPILE | TEST;
+            case "test":
+                return TEST;
+            default:
+                return COMPILE | RUNTIME | TEST;
+        }
+    }
+
+    private static String groupArtifact(String coordinates) {
+        return coordinates.substring(0, coordinates.lastIndexOf(':'));
+    }
+
+    /**
+     * @return true for the scopes needed to compile against or run a dependency
+     */
+    private static boolean isFollowed(String scope) {
+        return scope == null || scope.isEmpty() || scope.equals("compile") || scope.equals("runtime");
+    }
+
+    private static boolean isExcluded(Set<String> exclusions, String groupId, String artifactId) {
+        for (String exclusion : exclusions) {
+            String[] parts = exclusion.split(":");
+            if ((parts[0].equals("*") || parts[0].equals(groupId)) && (parts[1].equals("*") || parts[1].equals(artifactId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks a version from a version range. [1.2] means exactly 1.2, for other
+     * ranges the lower bound is taken, or the upper one if there is no lower bound.
+     */
+    private static String version(String version) {
+        if (!version.startsWith("[") && !version.startsWith("(")) return version;
+        String range = version.substring(1, version.length() - 1);
+        for (String bound : range.split(",")) {
+            if (!bound.isBlank()) return bound.trim();
+        }
+        return version;
+    }
+
+    private static String interpolate(String value, Map<String, String> properties) {
+        if (value == null) return null;
+        for (int pass = 0; pass < 10 && value.contains("${"); pass++) {
+            Matcher matcher = PROPERTY.matcher(value);
+            StringBuilder out = new StringBuilder();
+            while (matcher.find()) {
+                String replacement = properties.get(matcher.group(1));
+                matcher.appendReplacement(out, Matcher.quoteReplacement(replacement != null ? replacement : matcher.group()));
+            }
+            matcher.appendTail(out);
+            if (out.toString().equals(value)) break;
+            value = out.toString();
+        }
+        return value;
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> found = children(parent, name);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> found = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && (name == null || element.getTagName().equals(name))) {
+                found.add(element);
+            }
+        }
+        return found;
+    }
+
+    private static String text(Element parent, String name) {
+        Element element = child(parent, name);
+        return element == null ? null : element.getTextContent().trim();
+    }
+}
@@ -18,13 +18,31 @@
 
 package JSBCommands.Util;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility class for executing system commands.
  */
 public class Runner {
 
+    /** Whether command output is copied to System.out instead of going straight to the terminal */
+    private static volatile boolean pipeOutput = false;
+
+    /**
+     * Copies the output of commands run with {@link #runCommand(ArrayList)} to System.out,
+     * for when System.out is not the terminal, such as in the daemon.
+     *
+     * @param pipe true to copy the output, false to let commands inherit the terminal
+     */
+    public static void setPipeOutput(boolean pipe) {
+        pipeOutput = pipe;
+    }
+
     /**
      * Executes a system command with the given arguments.
      * 
@@ -46,11 +64,61 @@ public class Runner {
             pb.inheritIO();
             pb.redirectErrorStream(true);
             pb.environment().putAll(System.getenv());
+            if (pipeOutput) pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
             Process p = pb.start();
+            if (pipeOutput) p.getInputStream().transferTo(System.out);
             int exitCode = p.waitFor();
             return exitCode == 0;
         } catch (Exception e) {
             return false;
         }
     }
+
+    /**
+     * Starts a system command without waiting for it to finish.
+     *
+     * @param command The command and its arguments, see {@link #runCommand(ArrayList)}
+     * @return The started process
+     * @throws IOException If the process cannot be started
+     */
+    public static Process startCommand(ArrayList<String> command) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.inheritIO();
+        pb.redirectErrorStream(true);
+        pb.environment().putAll(System.getenv());
+        return pb.start();
+    }
+
+    /**
+     * Writes arguments to an argument file for java or javac, one per line and quoted,
+     * so a long classpath or many sources don't hit the command line limit of the shell.
+     *
+     * @param file The argument file, replaced if it exists
+     * @param args The arguments
+     * @return The argument to pass instead, @ followed by the file, quoted for the shell
+     * @throws IOException If the file cannot be written
+     */
+    public static String argFile(Path file, List<String> args) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (String arg : args) {
+            out.append('"').append(arg.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"\n");
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.writeString(file, out, StandardCharsets.UTF_8);
+        return "\"@" + file + "\"";
+    }
+
+    /**
+     * Stops a process started with {@link #startCommand(ArrayList)}, including the
+     * processes it started itself, such as the java process launched by a shell.
+     *
+     * @param process The process to stop, may be null
+     * @throws InterruptedException If interrupted while waiting for the process to exit
+     */
+    public static void stopCommand(Process process) throws InterruptedException {
+        if (process == null || !process.isAlive()) return;
+        process.descendants().forEach(ProcessHandle::destroy);
+        process.destroy();
+        process.waitFor();
+    }
 }
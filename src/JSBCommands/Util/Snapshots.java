@@ -0,0 +1,308 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Resolves SNAPSHOT versions to the timestamped builds a repository holds, e.g.
+ * 1.0-SNAPSHOT to 1.0-20250101.120000-3, through the maven-metadata.xml next to them.
+ * What was found is saved in dep.store and only checked again once the update interval
+ * is over, with a conditional request, so a SNAPSHOT that didn't change costs one 304.
+ */
+public class Snapshots {
+
+    /** Time limit for a metadata request */
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * What is known about the builds of one SNAPSHOT.
+     */
+    private static class Metadata {
+        /** The timestamped version of the newest build, by file extension, e.g. jar */
+        Map<String, String> versions = new HashMap<>();
+        /** When the repository was last asked, in ms since the epoch, 0 if never */
+        long checked;
+        /** The ETag of the metadata, for conditional requests */
+        String etag;
+        /** The Last-Modified date of the metadata, for conditional requests */
+        String lastModified;
+    }
+
+    /** Where what is known about each SNAPSHOT is saved */
+    private Path dir;
+    /** How long a SNAPSHOT is not checked again */
+    private Duration interval;
+    /** The repository URL, ending with a slash */
+    private String repository;
+    /** The repository and mirrors to ask, and the local repositories to look in */
+    private Repositories repositories;
+    /** What is known about each SNAPSHOT, by coordinates */
+    private Map<String, Metadata> known = new ConcurrentHashMap<>();
+    /** One lock per SNAPSHOT, so each is checked once even if asked for at the same time */
+    private Map<String, Object> locks = new ConcurrentHashMap<>();
+    /** The SNAPSHOTs already checked by this instance, which are not checked twice */
+    private Set<String> refreshed = ConcurrentHashMap.newKeySet();
+    /** SNAPSHOTs checked in the repository, found unchanged, and updated */
+    private AtomicInteger checked = new AtomicInteger();
+    private AtomicInteger unchanged = new AtomicInteger();
+    private AtomicInteger updated = new AtomicInteger();
+
+    /**
+     * @param dir Where what is known about each SNAPSHOT is saved
+     * @param interval How long a SNAPSHOT is not checked again
+     * @param repository The repository URL
+     * @param repositories The repository and mirrors to ask, and the local repositories to look in
+     */
+    public Snapshots(Path dir, Duration interval, String repository, Repositories repositories) {
+        this.dir = dir;
+        this.interval = interval;
+        this.repository = repository.endsWith("/") ? repository : repository + "/";
+        this.repositories = repositories;
+    }
+
+    /**
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @return Whether the version is a SNAPSHOT
+     */
+    public static boolean isSnapshot(String coordinates) {
+        return coordinates.endsWith("-SNAPSHOT");
+    }
+
+    /**
+     * Returns the version the files of an artifact have in the repository. For a
+     * SNAPSHOT that is the newest timestamped build, checked in the repository if the
+     * update interval is over, at most once per instance, else the version itself.
+     *
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @param extension The file extension, jar or pom
+     * @return The version in the file name, e.g. 1.0-20250101.120000-3, or 1.0-SNAPSHOT
+     *         if the repository has no timestamped build, e.g. for a locally installed one
+     * @throws IOException If the metadata cannot be read and was never read before
+     * @throws InterruptedException If the request is interrupted
+     */
+    public String version(String coordinates, String extension) throws IOException, InterruptedException {
+        String version = coordinates.split(":")[2];
+        if (!isSnapshot(coordinates)) return version;
+        synchronized (locks.computeIfAbsent(coordinates, key -> new Object())) {
+            Metadata metadata = known.get(coordinates);
+            if (metadata == null) metadata = this.load(coordinates);
+            boolean expired = System.currentTimeMillis() - metadata.checked >= interval.toMillis();
+            if (expired && refreshed.add(coordinates)) metadata = this.refresh(coordinates, metadata);
+            known.put(coordinates, metadata);
+            return metadata.versions.getOrDefault(extension, version);
+        }
+    }
+
+    /**
+     * Takes the version from the file name of a downloaded file, e.g. a URL in jsb.lock.
+     *
+     * @param coordinates The Maven coordinates, groupId:artifactId:version
+     * @param uri Where the file of the artifact is
+     * @return The version in the file name
+     */
+    public static String version(String coordinates, URI uri) {
+        String artifactId = coordinates.split(":")[1];
+        String path = uri.getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.substring(artifactId.length() + 1, name.lastIndexOf('.'));
+    }
+
+    /**
+     * @return How many SNAPSHOTs were checked, e.g. "2 SNAPSHOT(s) checked: 1 unchanged, 1 updated",
+     *         or null if none was checked
+     */
+    public String summary() {
+        if (checked.get() == 0) return null;
+        return checked.get() + " SNAPSHOT(s) checked: " + unchanged.get() + " unchanged, " + updated.get() + " updated";
+    }
+
+    /**
+     * Asks the repository for the metadata of a SNAPSHOT, if it changed since it was last
+     * read. A deployed file repository is read directly. Offline, or if the repository
+     * cannot be reached, what was known before is kept.
+     */
+    private Metadata refresh(String coordinates, Metadata metadata) throws IOException, InterruptedException {
+        String path = this.metadataPath(coordinates);
+        Path local = repositories.local(path);
+        if (local != null) {
+            try (InputStream in = Files.newInputStream(local)) {
+                return this.parse(coordinates, in);
+            }
+        }
+        if (Downloader.isOffline()) return metadata;
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(repository + path)).timeout(TIMEOUT).GET();
+        if (metadata.etag != null) builder.header("If-None-Match", metadata.etag);
+        if (metadata.lastModified != null) builder.header("If-Modified-Since", metadata.lastModified);
+        HttpResponse<InputStream> response;
+        try {
+            response = repositories.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            if (metadata.checked == 0) throw e;
+            System.out.println("Could not check " + coordinates + ", using the build found before: " + e.getMessage());
+            return metadata;
+        }
+        checked.incrementAndGet();
+
+        Metadata fresh;
+        try (InputStream body = response.body()) {
+            switch (response.statusCode()) {
+                case 304:
+                    unchanged.incrementAndGet();
+                    fresh = metadata;
+                    break;
+                case 200:
+                    fresh = this.parse(coordinates, body);
+                    fresh.etag = response.headers().firstValue("ETag").orElse(null);
+                    fresh.lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+                    if (fresh.versions.equals(metadata.versions)) unchanged.incrementAndGet();
+                    else updated.incrementAndGet();
+                    break;
+                case 404:
+                    // Not deployed, only a local repository may have it
+                    fresh = new Metadata();
+                    unchanged.incrementAndGet();
+                    break;
+                default:
+                    throw new IOException("HTTP " + response.statusCode() + " from " + response.uri());
+            }
+        }
+        fresh.checked = System.currentTimeMillis();
+        this.save(coordinates, fresh);
+        return fresh;
+    }
+
+    /**
+     * Reads the timestamped versions from maven-metadata.xml. Files with a classifier
+     * are left out, they are not used as dependencies.
+     */
+    private Metadata parse(String coordinates, InputStream in) throws IOException {
+        Metadata metadata = new Metadata();
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setExpandEntityReferences(false);
+            Document document = factory.newDocumentBuilder().parse(in);
+
+            NodeList versions = document.getElementsByTagName("snapshotVersion");
+            for (int i = 0; i < versions.getLength(); i++) {
+                Element version = (Element) versions.item(i);
+                if (!text(version, "classifier").isEmpty()) continue;
+                metadata.versions.put(text(version, "extension"), text(version, "value"));
+            }
+
+            // Metadata written by Maven 2 only has the newest timestamp and build number
+            NodeList snapshots = document.getElementsByTagName("snapshot");
+            if (metadata.versions.isEmpty() && snapshots.getLength() > 0) {
+                Element snapshot = (Element) snapshots.item(0);
+                String timestamp = text(snapshot, "timestamp");
+                String build = text(snapshot, "buildNumber");
+                if (!timestamp.isEmpty() && !build.isEmpty()) {
+                    String version = coordinates.split(":")[2].replace("SNAPSHOT", timestamp + "-" + build);
+                    metadata.versions.put("jar", version);
+                    metadata.versions.put("pom", version);
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException("Invalid maven-metadata.xml for " + coordinates + ": " + e.getMessage(), e);
+        }
+        return metadata;
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? "" : nodes.item(0).getTextContent().trim();
+    }
+
+    private Metadata load(String coordinates) throws IOException {
+        Metadata metadata = new Metadata();
+        Path file = this.file(coordinates);
+        if (!Files.isRegularFile(file)) return metadata;
+        Properties saved = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            saved.load(in);
+        }
+        for (String key : saved.stringPropertyNames()) {
+            if (key.startsWith("version.")) metadata.versions.put(key.substring(8), saved.getProperty(key));
+        }
+        metadata.checked = Long.parseLong(saved.getProperty("checked", "0"));
+        metadata.etag = saved.getProperty("etag");
+        metadata.lastModified = saved.getProperty("last-modified");
+        return metadata;
+    }
+
+    /**
+     * Saves what is known about a SNAPSHOT, replacing the file at once so other JSB
+     * processes never read half of it.
+     */
+    private void save(String coordinates, Metadata metadata) throws IOException {
+        Properties saved = new Properties();
+        for (Map.Entry<String, String> version : metadata.versions.entrySet()) {
+            saved.setProperty("version." + version.getKey(), version.getValue());
+        }
+        saved.setProperty("checked", Long.toString(metadata.checked));
+        if (metadata.etag != null) saved.setProperty("etag", metadata.etag);
+        if (metadata.lastModified != null) saved.setProperty("last-modified", metadata.lastModified);
+
+        Path file = this.file(coordinates);
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                saved.store(out, "Newest build of " + coordinates + ", see dep.snapshot.interval");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path file(String coordinates) {
+        String[] parts = coordinates.split(":");
+        return dir.resolve(parts[0]).resolve(parts[1] + "-" + parts[2] + ".properties");
+    }
+
+    private String metadataPath(String coordinates) {
+        String[] parts = coordinates.split(":");
+        return parts[0].replace(".", "/") + "/" + parts[1] + "/" + parts[2] + "/maven-metadata.xml";
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects how long javac spends in each phase, per source file, from the events it
+ * reports to a {@link TaskListener}. One instance can listen to several compilations
+ * at once, such as the parallel batches of one build, so times of batches running
+ * side by side add up.
+ */
+public class Timings implements TaskListener {
+
+    /**
+     * The phases timed per source file, in the order javac runs them. Entering is left
+     * out, javac enters all files together and only reports when the batch is done.
+     */
+    private static final List<TaskEvent.Kind> PHASES = List.of(
+        TaskEvent.Kind.PARSE,
+        TaskEvent.Kind.ANALYZE,
+        TaskEvent.Kind.GENERATE
+    );
+
+    /** Start time in nanoseconds of every event that has not finished yet */
+    private Map<String, Long> started = new ConcurrentHashMap<>();
+    /** Nanoseconds spent per phase, in the order of {@link #PHASES}, by source file */
+    private Map<String, AtomicLongArray> files = new ConcurrentHashMap<>();
+    /** Nanoseconds spent per phase over all files, including annotation processing */
+    private Map<TaskEvent.Kind, Long> phases = new EnumMap<>(TaskEvent.Kind.class);
+    /** Start time and number of files of the batch being entered, by thread */
+    private Map<Long, long[]> entering = new ConcurrentHashMap<>();
+
+    @Override
+    public void started(TaskEvent event) {
+        if (event.getKind() == TaskEvent.Kind.ENTER) {
+            long[] batch = entering.computeIfAbsent(Thread.currentThread().threadId(), k -> new long[2]);
+            if (batch[1]++ == 0) batch[0] = System.nanoTime();
+            return;
+        }
+        started.put(this.key(event), System.nanoTime());
+    }
+
+    @Override
+    public void finished(TaskEvent event) {
+        if (event.getKind() == TaskEvent.Kind.ENTER) {
+            long[] batch = entering.get(Thread.currentThread().threadId());
+            if (batch != null && --batch[1] == 0) this.add(event.getKind(), System.nanoTime() - batch[0]);
+            return;
+        }
+        Long start = started.remove(this.key(event));
+        if (start == null) return;
+        long took = System.nanoTime() - start;
+
+        this.add(event.getKind(), took);
+        int phase = PHASES.indexOf(event.getKind());
+        if (phase < 0 || event.getSourceFile() == null) return;
+        String file = Path.of(event.getSourceFile().toUri()).toString();
+        files.computeIfAbsent(file, k -> new AtomicLongArray(PHASES.size())).addAndGet(phase, took);
+    }
+
+    private void add(TaskEvent.Kind phase, long took) {
+        synchronized (phases) {
+            phases.merge(phase, took, Long::sum);
+        }
+    }
+
+    /**
+     * @return true if no compilation reported anything yet
+     */
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * Sums up the time spent per phase, e.g. "parse 120 ms, enter 80 ms, ...".
+     * Annotation processing includes parsing and entering the sources it generated.
+     *
+     * @return The phases javac went through and how long each took
+     */
+    public String phases() {
+        List<String> parts = new ArrayList<>();
+        synchronized (phases) {
+            for (Map.Entry<TaskEvent.Kind, Long> phase : phases.entrySet()) {
+                if (phase.getKey() == TaskEvent.Kind.COMPILATION) continue;
+                if (phase.getKey() == TaskEvent.Kind.ANNOTATION_PROCESSING_ROUND) continue;
+                parts.add(
+                    phase.getKey().name().toLowerCase().replace('_', ' ') + " " +
+                    phase.getValue() / 1_000_000 + " ms"
+                );
+            }
+        }
+        return String.join(", ", parts);
+    }
+
+    /**
+     * Lists the files javac spent the most time on.
+     *
+     * @param count How many files to list
+     * @return One line per file, slowest first, with the total and the time per phase
+     */
+    public List<String> slowest(int count) {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, AtomicLongArray> file : this.sorted()) {
+            if (lines.size() == count) break;
+            StringBuilder line = new StringBuilder(
+                String.format("%6d ms  %s (", total(file.getValue()) / 1_000_000, file.getKey())
+            );
+            for (int i = 0; i < PHASES.size(); i++) {
+                if (i > 0) line.append(", ");
+                line.append(PHASES.get(i).name().toLowerCase()).append(' ')
+                    .append(file.getValue().get(i) / 1_000_000).append(" ms");
+            }
+            lines.add(line.append(')').toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the time per phase of every file as CSV, slowest file first, in milliseconds.
+     *
+     * @param report The file to write
+     * @throws IOException If the report cannot be written
+     */
+    public void write(Path report) throws IOException {
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(report.toAbsolutePath().getParent(), "timings", ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp))) {
+                StringBuilder header = new StringBuilder("file");
+                for (TaskEvent.Kind phase : PHASES) {
+                    header.append(',').append(phase.name().toLowerCase()).append("_ms");
+                }
+                out.println(header.append(",total_ms"));
+
+                for (Map.Entry<String, AtomicLongArray> file : this.sorted()) {
+                    StringBuilder line = new StringBuilder(csv(file.getKey()));
+                    for (int i = 0; i < PHASES.size(); i++) {
+                        line.append(',').append(millis(file.getValue().get(i)));
+                    }
+                    out.println(line.append(',').append(millis(total(file.getValue()))));
+                }
+            }
+            Files.move(temp, report, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private List<Map.Entry<String, AtomicLongArray>> sorted() {
+        List<Map.Entry<String, AtomicLongArray>> sorted = new ArrayList<>(files.entrySet());
+        sorted.sort((a, b) -> Long.compare(total(b.getValue()), total(a.getValue())));
+        return sorted;
+    }
+
+    /**
+     * Identifies an event, so its start can be found when it finishes.
+     * Events of the same kind and file only overlap when they run on different threads.
+     */
+    private String key(TaskEvent event) {
+        return event.getKind() + " " +
+            Thread.currentThread().threadId() + " " +
+            (event.getSourceFile() == null ? "" : event.getSourceFile().toUri()) + " " +
+            (event.getTypeElement() == null ? "" : event.getTypeElement().getQualifiedName());
+    }
+
+    private static long total(AtomicLongArray times) {
+        long total = 0;
+        for (int i = 0; i < times.length(); i++) total += times.get(i);
+        return total;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Java Simple Build (JSB) - A straightforward build tool for Java projects
+ * Copyright (C) 2025 KUKHUA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package JSBCommands.Util;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches directory trees for changes, for the --watch option of build and run.
+ * Bursts of events, such as an editor saving several files, are reported as one change.
+ */
+public class Watcher implements AutoCloseable {
+
+    /** The underlying file system watch service */
+    private WatchService service;
+    /** The directory each registered key watches */
+    private Map<WatchKey, Path> directories = new HashMap<>();
+    /** Time in nanoseconds when the first event of the last change was seen */
+    private long firstEvent;
+
+    /**
+     * Starts watching the given directory trees. Directories that don't exist are skipped.
+     *
+     * @param roots The directories to watch, including all sub-directories
+     * @throws IOException If the watch service cannot be created
+     */
+    public Watcher(List<Path> roots) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            if (Files.isDirectory(root)) this.registerTree(root);
+        }
+    }
+
+    /**
+     * Waits until something changes, then keeps collecting events until no new
+     * event arrived for the debounce time.
+     *
+     * @param debounceMillis How long the tree has to be quiet before returning
+     * @return The paths that were created, modified or deleted
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public Set<Path> awaitChanges(long debounceMillis) throws InterruptedException {
+        Set<Path> changed = new LinkedHashSet<>();
+        WatchKey key = service.take();
+        firstEvent = System.nanoTime();
+        while (key != null) {
+            this.collect(key, changed);
+            key = service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    /**
+     * @return Milliseconds since the first event of the last change was seen
+     */
+    public long sinceFirstEvent() {
+        return (System.nanoTime() - firstEvent) / 1_000_000;
+    }
+
+    /**
+     * Stops watching.
+     *
+     * @throws IOException If the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) continue;
+            Path path = dir.resolve((Path) event.context());
+            changed.add(path);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    this.registerTree(path);
+                    // Files created before the directory was registered would be missed
+                    try (Stream<Path> files = Files.walk(path)) {
+                        changed.addAll(files.collect(Collectors.toList()));
+                    }
+                } catch (IOException e) {
+                    System.out.println("Could not watch " + path + ": " + e.getMessage());
+                }
+            }
+        }
+        if (!key.reset()) directories.remove(key);
+    }
+
+    private void registerTree(Path root) throws IOException {
+        try (Stream<Path> tree = Files.walk(root)) {
+            for (Path dir : tree.filter(Files::isDirectory).collect(Collectors.toList())) {
+                WatchKey key = dir.register(
+                    service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+                );
+                directories.put(key, dir);
+            }
+        }
+    }
+}
@@ -18,17 +18,33 @@
 
 import Command.Manager;
 import JSBCommands.BuildCommand;
+import JSBCommands.CacheCommand;
+import JSBCommands.DaemonCommand;
 import JSBCommands.DependencyCommand;
 import JSBCommands.InitCommand;
 import JSBCommands.PackageCommand;
 import JSBCommands.RunCommand;
 import JSBCommands.ConfigCommand;
 import JSBCommands.Util.Config;
+import JSBCommands.Util.Daemon;
 import JSBCommands.Util.Dependency;
+import JSBCommands.Util.Downloader;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
 
     public static void main(String[] args) throws Exception {
+        // A running daemon has everything loaded already, so skip setting up this JVM
+        if (Daemon.forward(args)) return;
+
+        // Works with any command, and guarantees no network access at all
+        List<String> arguments = new ArrayList<>(List.of(args));
+        if (arguments.remove("--offline")) {
+            Downloader.setOffline(true);
+            args = arguments.toArray(new String[0]);
+        }
+
         Manager commandManager = new Manager(
             "Java Simple Build (JSB) -",
             "0.0.5",
@@ -55,6 +71,10 @@ public class Main {
         
         commandManager.register("config", new ConfigCommand(config));
 
+        commandManager.register("cache", new CacheCommand(config));
+
+        commandManager.register("daemon", new DaemonCommand(config, commandManager));
+
         commandManager.execute(args);
 
     }